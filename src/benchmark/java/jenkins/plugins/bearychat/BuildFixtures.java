@@ -0,0 +1,207 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.ItemGroup;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import hudson.scm.EditType;
+import jenkins.model.Jenkins;
+import org.powermock.reflect.Whitebox;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Synthetic projects, build histories and change sets for the benchmarks.
+ *
+ * Builds and projects are Mockito mocks: only the non-final getters the plugin
+ * calls are stubbed, and the final ones compute their value from those.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+final class BuildFixtures {
+
+    static final String ROOT_URL = "http://jenkins.example.com/";
+    static final int AUTHORS = 20;
+    static final int FILES_PER_CHANGE = 3;
+
+    private BuildFixtures() {
+    }
+
+    /**
+     * Lets {@code AbstractItem.getAbsoluteUrl()} find a root URL without a running Jenkins.
+     */
+    static void installJenkins() {
+        Jenkins jenkins = mock(Jenkins.class);
+        when(jenkins.getRootUrl()).thenReturn(ROOT_URL);
+        Whitebox.setInternalState(Jenkins.class, "theInstance", jenkins);
+    }
+
+    /**
+     * Keeps the INFO lines the plugin logs per change set entry off the console.
+     * The records are still created, so their cost stays in the numbers.
+     */
+    static void muteConsoleLogging() {
+        Logger root = Logger.getLogger("");
+        for (Handler handler : root.getHandlers()) {
+            root.removeHandler(handler);
+        }
+    }
+
+    static BearyChatNotifier notifier() {
+        return new BearyChatNotifier("http://bearychat.example.com/hook", "#ci", ROOT_URL,
+                true, true, true, true, true, true, true, false, null, null);
+    }
+
+    static AbstractProject project(String name) {
+        ItemGroup parent = mock(ItemGroup.class);
+        when(parent.getFullName()).thenReturn("");
+        when(parent.getFullDisplayName()).thenReturn("");
+        AbstractProject project = mock(AbstractProject.class);
+        when(project.getParent()).thenReturn(parent);
+        when(project.getName()).thenReturn(name);
+        when(project.getDisplayName()).thenReturn(name);
+        when(project.getUrl()).thenReturn("job/" + name + "/");
+        return project;
+    }
+
+    /**
+     * Creates the last build of a project with {@code history} earlier builds. All of
+     * them but the first are aborted, so status lookups walk the whole history.
+     */
+    static AbstractBuild build(AbstractProject project, Result result, int history, int changes) {
+        AbstractBuild previous = null;
+        AbstractBuild firstSuccess = null;
+        for (int number = 1; number <= history; number++) {
+            AbstractBuild earlier = build(project, number, number == 1 ? Result.SUCCESS : Result.ABORTED, previous, firstSuccess);
+            firstSuccess = firstSuccess == null ? earlier : firstSuccess;
+            previous = earlier;
+        }
+        AbstractBuild build = build(project, history + 1, result, previous, firstSuccess);
+        when(build.getChangeSet()).thenReturn(changeSet(build, changes));
+        when(build.hasChangeSetComputed()).thenReturn(true);
+        when(project.getLastBuild()).thenReturn(build);
+        return build;
+    }
+
+    private static AbstractBuild build(AbstractProject project, int number, Result result,
+                                       AbstractBuild previous, AbstractBuild previousSuccess) {
+        AbstractBuild build = mock(AbstractBuild.class);
+        // Run.getFullDisplayName() reads the field rather than getParent()
+        Whitebox.setInternalState(build, "project", project, Run.class);
+        when(build.getParent()).thenReturn(project);
+        when(build.getNumber()).thenReturn(number);
+        when(build.getId()).thenReturn(String.valueOf(number));
+        when(build.getDisplayName()).thenReturn("#" + number);
+        when(build.getResult()).thenReturn(result);
+        when(build.isBuilding()).thenReturn(false);
+        when(build.getPreviousBuild()).thenReturn(previous);
+        when(build.getPreviousSuccessfulBuild()).thenReturn(previousSuccess);
+        when(build.getStartTimeInMillis()).thenReturn(number * 60000L);
+        when(build.getDuration()).thenReturn(30000L);
+        when(build.getChangeSet()).thenReturn(ChangeLogSet.createEmpty(build));
+        return build;
+    }
+
+    static ChangeLogSet changeSet(Run build, int changes) {
+        List<User> authors = new ArrayList<User>(AUTHORS);
+        for (int i = 0; i < AUTHORS; i++) {
+            User author = mock(User.class);
+            when(author.getDisplayName()).thenReturn("Developer " + i);
+            authors.add(author);
+        }
+        List<FakeEntry> entries = new ArrayList<FakeEntry>(changes);
+        for (int i = 0; i < changes; i++) {
+            List<FakeFile> files = new ArrayList<FakeFile>(FILES_PER_CHANGE);
+            for (int f = 0; f < FILES_PER_CHANGE; f++) {
+                files.add(new FakeFile("src/main/java/module" + (i % 50) + "/File" + (i * FILES_PER_CHANGE + f) + ".java"));
+            }
+            entries.add(new FakeEntry("Change " + i + ": fix <b>escaping</b> & tidy up the \"message\" builder",
+                    authors.get(i % AUTHORS), files));
+        }
+        return new FakeChangeLogSet(build, entries);
+    }
+
+    static final class FakeChangeLogSet extends ChangeLogSet<FakeEntry> {
+
+        private final List<FakeEntry> entries;
+
+        FakeChangeLogSet(Run build, List<FakeEntry> entries) {
+            super(build, null);
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean isEmptySet() {
+            return entries.isEmpty();
+        }
+
+        public Iterator<FakeEntry> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    static final class FakeEntry extends ChangeLogSet.Entry {
+
+        private final String msg;
+        private final User author;
+        private final List<FakeFile> files;
+
+        FakeEntry(String msg, User author, List<FakeFile> files) {
+            this.msg = msg;
+            this.author = author;
+            this.files = files;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return author;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            List<String> paths = new ArrayList<String>(files.size());
+            for (FakeFile file : files) {
+                paths.add(file.getPath());
+            }
+            return paths;
+        }
+
+        @Override
+        public Collection<? extends ChangeLogSet.AffectedFile> getAffectedFiles() {
+            return Collections.unmodifiableList(files);
+        }
+    }
+
+    static final class FakeFile implements ChangeLogSet.AffectedFile {
+
+        private final String path;
+
+        FakeFile(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public EditType getEditType() {
+            return EditType.EDIT;
+        }
+    }
+}
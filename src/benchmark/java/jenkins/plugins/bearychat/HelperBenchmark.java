@@ -0,0 +1,107 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.TimeUnit;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link Helper} lookups behind a notification, across history and change set sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class HelperBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class History {
+
+        @Param({"10", "1000", "10000"})
+        public int history;
+
+        AbstractBuild build;
+
+        @Setup
+        public void setUp() {
+            BuildFixtures.muteConsoleLogging();
+            BuildFixtures.installJenkins();
+            build = BuildFixtures.build(BuildFixtures.project("history"), Result.SUCCESS, history, 1);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Changes {
+
+        @Param({"10", "100", "1000", "10000"})
+        public int changes;
+
+        BearyChatNotifier notifier;
+        AbstractBuild build;
+
+        @Setup
+        public void setUp() {
+            BuildFixtures.muteConsoleLogging();
+            BuildFixtures.installJenkins();
+            notifier = BuildFixtures.notifier();
+            build = BuildFixtures.build(BuildFixtures.project("changes"), Result.SUCCESS, 1, changes);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Text {
+
+        @Param({"plain", "markup", "cjk"})
+        public String kind;
+
+        String text;
+
+        @Setup
+        public void setUp() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 64; i++) {
+                if ("markup".equals(kind)) {
+                    sb.append("<a href=\"job/").append(i).append("\">build & \"deploy\"</a> ");
+                } else if ("cjk".equals(kind)) {
+                    sb.append("构建成功 ").append(i).append(' ');
+                } else {
+                    sb.append("build number ").append(i).append(" finished ");
+                }
+            }
+            text = sb.toString();
+        }
+    }
+
+    @Benchmark
+    public String statusByBuild(History state) {
+        return Helper.getStatusByBuild(state.build);
+    }
+
+    @Benchmark
+    public String commitMessages(Changes state) {
+        return Helper.getCommitMessages(state.build);
+    }
+
+    @Benchmark
+    public String changes(Changes state) {
+        return Helper.getChanges(state.notifier, state.build);
+    }
+
+    @Benchmark
+    public String escape(Text state) {
+        return Helper.escape(state.text);
+    }
+}
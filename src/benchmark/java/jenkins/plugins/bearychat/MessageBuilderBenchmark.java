@@ -0,0 +1,85 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.TimeUnit;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What it costs to render the started and completed notifications of one build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class MessageBuilderBenchmark {
+
+    @Param({"10", "1000"})
+    public int history;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int changes;
+
+    private BearyChatNotifier notifier;
+    private AbstractBuild build;
+    private MessageBuilder messageBuilder;
+
+    @Setup
+    public void setUp() {
+        BuildFixtures.muteConsoleLogging();
+        BuildFixtures.installJenkins();
+        notifier = BuildFixtures.notifier();
+        build = BuildFixtures.build(BuildFixtures.project("benchmark"), Result.FAILURE, history, changes);
+        messageBuilder = new MessageBuilder(notifier, build);
+    }
+
+    @Benchmark
+    public MessageBuilder construct() {
+        return new MessageBuilder(notifier, build);
+    }
+
+    @Benchmark
+    public String completedText() {
+        return messageBuilder.getCompletedText();
+    }
+
+    @Benchmark
+    public String completedMessage() {
+        return messageBuilder.getCompletedMessage();
+    }
+
+    /**
+     * Everything {@link ActiveNotifier} renders for a started build, on the executor in {@code prebuild}.
+     * Run it with JMH's {@code -prof gc} to see the allocations per notification as well.
+     */
+    @Benchmark
+    public int startedNotification() {
+        MessageBuilder builder = new MessageBuilder(notifier, build);
+        return builder.getStartedMessage().length() + builder.getStartedFallback().length()
+                + builder.getStartedText().length();
+    }
+
+    /**
+     * Everything {@link ActiveNotifier} renders for a completed build.
+     */
+    @Benchmark
+    public int completedNotification() {
+        MessageBuilder builder = new MessageBuilder(notifier, build);
+        return builder.getCompletedMessage().length() + builder.getCompletedFallback().length()
+                + builder.getCompletedText().length();
+    }
+}
@@ -0,0 +1,75 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing a rendered notification for the wire, next to the json-lib tree it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({"5", "100"})
+    public int commits;
+
+    private StandardBearyChatService service;
+    private String title;
+    private String text;
+    private String fallback;
+    private BearyChatPayload payload;
+
+    @Setup
+    public void setUp() {
+        service = new StandardBearyChatService("http://bearychat.example.com/hook", "#ci");
+        title = "[benchmark](" + BuildFixtures.ROOT_URL + "job/benchmark/) "
+                + "[#42](" + BuildFixtures.ROOT_URL + "job/benchmark/42) Failure after 3 min 12 sec";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < commits; i++) {
+            sb.append("- Change ").append(i).append(": fix \"quoting\" <b>again</b> [Developer ").append(i % 20).append("]\n");
+        }
+        text = sb.toString();
+        fallback = "benchmark - #42 Failure after 3 min 12 sec";
+        payload = service.genPayload(title, text, fallback, Helper.COLOR_RED);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return PayloadWriter.toJson(service.genPayload(title, text, fallback, Helper.COLOR_RED));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Encoding {
+
+        @Param({"FORM", "JSON", "JSON_GZIP"})
+        public PayloadFormat format;
+    }
+
+    @Benchmark
+    public byte[] encode(Encoding encoding) throws IOException {
+        return encoding.format.encode(PayloadWriter.toJson(payload));
+    }
+
+    @Benchmark
+    public String jsonLibTree() {
+        JSONObject data = service.genData(title, text, fallback, Helper.COLOR_RED);
+        return data.toString();
+    }
+}
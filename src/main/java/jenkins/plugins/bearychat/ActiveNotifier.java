@@ -3,7 +3,6 @@ package jenkins.plugins.bearychat;
 import java.util.logging.Logger;
 
 import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Result;
 import hudson.model.Run;
@@ -13,6 +12,9 @@ public class ActiveNotifier implements FineGrainedNotifier {
 
     private static final Logger logger = Logger.getLogger(ActiveNotifier.class.getName());
 
+    static final String PHASE_STARTED = "started";
+    static final String PHASE_COMPLETED = "completed";
+
     BuildListener listener;
     BearyChatNotifier notifier;
 
@@ -22,8 +24,36 @@ public class ActiveNotifier implements FineGrainedNotifier {
         this.listener = listener;
     }
 
-    private BearyChatService getBearyChat(AbstractBuild build) {
-        return notifier.newBearyChatService(build, listener);
+    private StandardBearyChatService getBearyChat(AbstractBuild build, String phase) {
+        return notifier.newBearyChatService(build, listener, phase);
+    }
+
+    /**
+     * Renders the payload on the calling thread and leaves the HTTP post to the delivery queue.
+     * The message build time recorded in the metrics runs from {@code buildStart} until the payload is ready.
+     */
+    private void publish(AbstractBuild build, String phase, long buildStart, String title, String text, String fallback, String color, boolean urgent) {
+        StandardBearyChatService service = getBearyChat(build, phase);
+        // the build timestamp tells a recreated job's build apart from the old one with the same number
+        long key = IdempotencyCache.key(build.getProject().getFullName(), String.valueOf(build.getNumber()),
+                String.valueOf(build.getTimeInMillis()), phase, service.getWebhook(), service.getChannel());
+        if (!IdempotencyCache.get().claim(key, System.currentTimeMillis())) {
+            logger.info("Already notified BearyChat of " + build.getFullDisplayName() + " " + phase + ", skipping");
+            return;
+        }
+        BearyChatPayload payload = service.genPayload(title, text, fallback, color);
+        if (payload.truncate(notifier.getDescriptor().getMaxPayloadBytes())) {
+            logger.info("BearyChat notification of " + build.getFullDisplayName() + " cut to fit the size limit");
+        }
+        BearyChatMetrics.get().forWebhook(service.getWebhook()).recordBuild(System.currentTimeMillis() - buildStart);
+        QueuedNotification notification = new QueuedNotification(service.getWebhook(), service.getChannel(), payload);
+        notification.setUrgent(urgent);
+        notification.setPayloadFormat(service.getPayloadFormat());
+        notification.setIdempotencyKey(key);
+        notification.setReadTimeoutMillis(service.getReadTimeoutMillis());
+        if (!BearyChatDeliveryQueue.get().submit(notification)) {
+            listener.getLogger().println("BearyChat delivery queue is full, notification dropped");
+        }
     }
 
 
@@ -33,6 +63,7 @@ public class ActiveNotifier implements FineGrainedNotifier {
      * start after failure is still RED color
      */
     public void started(AbstractBuild build) {
+        long buildStart = System.currentTimeMillis();
         MessageBuilder messageBuilder = new MessageBuilder(this.notifier, build);
 
         String color = Helper.COLOR_GREEN;
@@ -54,31 +85,37 @@ public class ActiveNotifier implements FineGrainedNotifier {
         String fallback = messageBuilder.getStartedFallback();
         String text = messageBuilder.getStartedText();
 
-        getBearyChat(build).publish(title, text, fallback, color);
+        publish(build, PHASE_STARTED, buildStart, title, text, fallback, color, false);
     }
 
     public void finalized(AbstractBuild r) {
     }
 
     private void notifyCompleted(AbstractBuild build) {
+        long buildStart = System.currentTimeMillis();
         MessageBuilder messageBuilder = new MessageBuilder(this.notifier, build);
         String color = Helper.getBuildColor(build);
         String title = messageBuilder.getCompletedMessage();
         String fallback = messageBuilder.getCompletedFallback();
         String text = messageBuilder.getCompletedText();
+        // failures should not queue up behind routine notifications
+        boolean urgent = build.getResult() == Result.FAILURE || build.getResult() == Result.UNSTABLE;
 
-        getBearyChat(build).publish(title, text, fallback, color);
+        publish(build, PHASE_COMPLETED, buildStart, title, text, fallback, color, urgent);
     }
 
     public void completed(AbstractBuild build) {
-        AbstractProject<?, ?> project = build.getProject();
-        Result result = build.getResult();
-        AbstractBuild<?, ?> previousBuild = project.getLastBuild();
-        do {
-            previousBuild = previousBuild == null ? null : previousBuild.getPreviousCompletedBuild();
+        try {
+            notifyTransition(build);
+        } finally {
+            BuildTransitionIndex.get().record(build);
         }
-        while (previousBuild != null && previousBuild.getResult() == Result.ABORTED);
-        Result previousResult = (previousBuild != null) ? previousBuild.getResult() : Result.SUCCESS;
+    }
+
+    private void notifyTransition(AbstractBuild build) {
+        Result result = build.getResult();
+        // the last earlier build that was not aborted, SUCCESS if there is none
+        Result previousResult = BuildTransitionIndex.get().getPrevious(build).getResult();
 
         // Build aborted
         if (result == Result.ABORTED && this.notifier.isNotifyOnAborted()) {
@@ -0,0 +1,80 @@
+package jenkins.plugins.bearychat;
+
+/**
+ * AIMD limit on the number of posts in flight to one webhook.
+ *
+ * The limit grows by one per window of successful, fast responses and is halved
+ * when the webhook throttles us or responds slower than the latency target, at
+ * most once per round trip.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private final String webhook;
+    private int maxLimit;
+    private final long latencyTargetMillis;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    public AdaptiveConcurrencyLimit(String webhook, int initialLimit, int maxLimit, long latencyTargetMillis) {
+        this.webhook = webhook;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.latencyTargetMillis = latencyTargetMillis;
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * Applies a new ceiling; the posts already in flight keep their slots.
+     */
+    public synchronized void setMaxLimit(int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.min(limit, this.maxLimit);
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Releases a slot without feeding the limit, for posts that never happened.
+     */
+    public synchronized void cancel() {
+        inFlight = Math.max(0, inFlight - 1);
+    }
+
+    /**
+     * Releases a slot and adjusts the limit from the observed response.
+     */
+    public synchronized void release(long latencyMillis, boolean throttled, long now) {
+        inFlight = Math.max(0, inFlight - 1);
+        if (throttled || latencyMillis > latencyTargetMillis) {
+            if (now - lastDecrease > latencyMillis) {
+                limit = Math.max(1, limit / 2);
+                lastDecrease = now;
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getDisplayName() {
+        return Helper.maskWebhook(webhook);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,155 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.ProxyConfiguration;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Posts through HttpAsyncClient, whose I/O reactor multiplexes every connection
+ * on a few threads, so hundreds of posts can be in flight without holding a
+ * thread each. The returned futures complete on an I/O thread.
+ */
+public class AsyncHttpTransport implements BearyChatTransport {
+
+    private static final Logger logger = Logger.getLogger(AsyncHttpTransport.class.getName());
+
+    public static final int DEFAULT_IO_THREADS = 2;
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient client;
+    private final RequestConfig defaultConfig;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public AsyncHttpTransport(int ioThreads, int maxConnections, TimeoutPolicy timeouts, ProxyConfiguration proxy)
+            throws IOReactorException {
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(timeouts.getConnectMillis())
+                .setSoTimeout(timeouts.getReadMillis())
+                .setSoKeepAlive(true)
+                .build();
+        connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+        connectionManager.setMaxTotal(maxConnections);
+        // nearly every post goes to the same host, so it may use the whole pool
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        defaultConfig = RequestConfig.custom()
+                .setConnectTimeout(timeouts.getConnectMillis())
+                .setSocketTimeout(timeouts.getReadMillis())
+                .setConnectionRequestTimeout(timeouts.getPoolMillis())
+                .build();
+
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(defaultConfig);
+        if (proxy != null) {
+            builder.setProxy(new HttpHost(proxy.name, proxy.port));
+            String username = proxy.getUserName();
+            if (username != null && !"".equals(username.trim())) {
+                logger.info("Using proxy authentication (user=" + username + ")");
+                BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+                credentials.setCredentials(new AuthScope(proxy.name, proxy.port),
+                        new UsernamePasswordCredentials(username, proxy.getPassword()));
+                builder.setDefaultCredentialsProvider(credentials);
+            }
+        }
+        client = builder.build();
+        client.start();
+    }
+
+    public ListenableFuture<DeliveryResult> post(TransportRequest request) {
+        final SettableFuture<DeliveryResult> result = SettableFuture.create();
+        HttpPost post;
+        try {
+            post = new HttpPost(request.getUrl());
+        } catch (IllegalArgumentException e) {
+            result.set(DeliveryResult.fromException(e));
+            return result;
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            post.addHeader(header.getKey(), header.getValue());
+        }
+        post.setEntity(new ByteArrayEntity(request.getBody(), ContentType.parse(request.getContentType())));
+        if (request.getReadTimeoutMillis() > 0) {
+            post.setConfig(RequestConfig.copy(defaultConfig).setSocketTimeout(request.getReadTimeoutMillis()).build());
+        }
+
+        inFlight.incrementAndGet();
+        try {
+            client.execute(post, new FutureCallback<HttpResponse>() {
+                public void completed(HttpResponse response) {
+                    inFlight.decrementAndGet();
+                    Header retryAfter = response.getFirstHeader("Retry-After");
+                    String body = null;
+                    try {
+                        if (response.getEntity() != null) {
+                            body = EntityUtils.toString(response.getEntity(), "UTF-8");
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Unable to read BearyChat response", e);
+                    }
+                    result.set(DeliveryResult.fromStatus(response.getStatusLine().getStatusCode(),
+                            retryAfter == null ? null : retryAfter.getValue(), body));
+                }
+
+                public void failed(Exception e) {
+                    inFlight.decrementAndGet();
+                    logger.log(Level.WARNING, "Error posting to BearyChat", e);
+                    result.set(DeliveryResult.fromException(e));
+                }
+
+                public void cancelled() {
+                    inFlight.decrementAndGet();
+                    result.set(DeliveryResult.fromException(new IOException("BearyChat post cancelled")));
+                }
+            });
+        } catch (IllegalStateException e) {
+            // the client has been closed, e.g. by a configuration change racing this post
+            inFlight.decrementAndGet();
+            result.set(DeliveryResult.fromException(new IOException("BearyChat transport closed", e)));
+        }
+        return result;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing BearyChat async transport", e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package jenkins.plugins.bearychat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.scm.ChangeLogSet;
+
+/**
+ * Display names of change set authors, keyed by commit id. Most SCMs look the
+ * {@link User} up when an entry's author is asked for, which can mean reading its
+ * record from disk or asking the security realm, and the same commit shows up in
+ * the change sets of every job that builds the repository.
+ *
+ * Only content hashes, as Git and Mercurial use, name the same commit in every
+ * repository. Other commit ids, such as Subversion or Perforce revision numbers,
+ * are kept apart per job since another repository reuses them for other commits.
+ *
+ * Names expire after a TTL and the cache holds a bounded number of commits,
+ * evicting the least recently used one. Authors that could not be resolved are
+ * remembered for a shorter time, and a saved user record drops that user's names.
+ */
+public class AuthorNameCache {
+
+    private static final Logger logger = Logger.getLogger(AuthorNameCache.class.getName());
+
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.MINUTES.toMillis(1);
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    static final String UNKNOWN = "unknown";
+
+    private static final AuthorNameCache INSTANCE =
+            new AuthorNameCache(DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_ENTRIES);
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LinkedHashMap<String, Name> entries;
+    private long hits;
+    private long misses;
+
+    private static class Name {
+        final String displayName;
+        // null when the author could not be resolved
+        final String userId;
+        final long expiresAt;
+
+        Name(String displayName, String userId, long expiresAt) {
+            this.displayName = displayName;
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public AuthorNameCache(long ttlMillis, long negativeTtlMillis, final int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.entries = new LinkedHashMap<String, Name>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Name> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static AuthorNameCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param job full name of the job whose change set has the entry, null if unknown
+     * @return the display name of the entry's author, resolved again once the cached one has expired
+     */
+    public String getDisplayName(String job, ChangeLogSet.Entry entry) {
+        String key = key(job, entry.getCommitId());
+        if (key == null) {
+            // nothing to key on, the SCM does not expose commit ids
+            return resolve(entry).displayName;
+        }
+        long now = now();
+        synchronized (this) {
+            Name name = entries.get(key);
+            if (name != null && name.expiresAt > now) {
+                hits++;
+                return name.displayName;
+            }
+            misses++;
+        }
+        // resolve outside the lock, a slow realm must not block other authors
+        Name name = resolve(entry);
+        synchronized (this) {
+            entries.put(key, name);
+        }
+        return name.displayName;
+    }
+
+    static String key(String job, String commitId) {
+        if (commitId == null) {
+            return null;
+        }
+        if (isContentHash(commitId)) {
+            return commitId;
+        }
+        return job == null ? null : job + "#" + commitId;
+    }
+
+    // SHA-1 and SHA-256 in hex, anything shorter may well be a revision number
+    private static boolean isContentHash(String commitId) {
+        if (commitId.length() != 40 && commitId.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < commitId.length(); i++) {
+            char c = commitId.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Name resolve(ChangeLogSet.Entry entry) {
+        try {
+            User author = entry.getAuthor();
+            if (author != null) {
+                String displayName = author.getDisplayName();
+                if (displayName != null) {
+                    return new Name(displayName, author.getId(), now() + ttlMillis);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.FINE, "Unable to resolve the author of " + entry.getCommitId(), e);
+        }
+        return new Name(UNKNOWN, null, now() + negativeTtlMillis);
+    }
+
+    /**
+     * Drops the names of a user, for instance after its record was saved with a new full name.
+     */
+    public synchronized void invalidate(String userId) {
+        Iterator<Name> names = entries.values().iterator();
+        while (names.hasNext()) {
+            if (userId.equals(names.next().userId)) {
+                names.remove();
+            }
+        }
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Extension
+    public static class UserListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof User && ((User) o).getId() != null) {
+                get().invalidate(((User) o).getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.ProxyConfiguration;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * Plugin-wide HTTP connection pool shared by every {@link StandardBearyChatService}.
+ *
+ * Connections to a webhook host are kept alive and reused between notifications,
+ * so only the first post to a host pays for the TCP and TLS handshake. The pooled
+ * client is rebuilt whenever the Jenkins proxy configuration changes.
+ *
+ * Webhook hosts get their own {@link HostConfiguration} whose sockets resolve
+ * through a {@link DnsCache} and finish the TLS handshake eagerly, which lets
+ * {@link #warmUp} open ready-to-use connections before the first post.
+ */
+public class BearyChatConnectionPool {
+
+    private static final Logger logger = Logger.getLogger(BearyChatConnectionPool.class.getName());
+
+    public static final int MAX_CONNECTIONS_PER_HOST = 20;
+    public static final int MAX_TOTAL_CONNECTIONS = 100;
+    public static final long IDLE_TIMEOUT = 60 * 1000L;
+
+    private static final long IDLE_CHECK_INTERVAL = 15 * 1000L;
+    static final int WARM_CONNECTIONS_PER_HOST = 2;
+
+    private static final BearyChatConnectionPool INSTANCE = new BearyChatConnectionPool();
+
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+    private final DnsCache dnsCache = new DnsCache(DnsCache.DEFAULT_TTL, DnsCache.DEFAULT_MAX_HOSTS);
+    // one instance per scheme: pooled connections are keyed by host configurations that compare their protocols
+    private final Protocol http = new Protocol("http", new WarmSocketFactory(dnsCache), 80);
+    private final Protocol https = new Protocol("https", new WarmSocketFactory.Secure(dnsCache), 443);
+    private final Map<String, HostConfiguration> hostConfigurations = new HashMap<String, HostConfiguration>();
+
+    private volatile TimeoutPolicy timeouts = TimeoutPolicy.defaults();
+    private HttpClient client;
+    private String proxyFingerprint;
+    private int proxyResets;
+
+    BearyChatConnectionPool() {
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+        params.setStaleCheckingEnabled(true);
+        params.setConnectionTimeout(timeouts.getConnectMillis());
+        params.setSoTimeout(timeouts.getReadMillis());
+
+        idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+        idleConnectionTimeoutThread.setName("BearyChat idle connection evictor");
+        idleConnectionTimeoutThread.setTimeoutInterval(IDLE_CHECK_INTERVAL);
+        idleConnectionTimeoutThread.setConnectionTimeout(IDLE_TIMEOUT);
+        idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+        idleConnectionTimeoutThread.start();
+    }
+
+    public static BearyChatConnectionPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the shared client, rebuilding it when the proxy settings have changed
+     * since it was created. The returned client is safe to use from any thread.
+     */
+    public synchronized HttpClient getHttpClient() {
+        ProxyConfiguration proxy = getProxy();
+        String fingerprint = fingerprint(proxy);
+        if (client == null || !fingerprint.equals(proxyFingerprint)) {
+            if (client != null) {
+                logger.info("Proxy configuration changed, dropping pooled BearyChat connections");
+                connectionManager.closeIdleConnections(0);
+                hostConfigurations.clear();
+                proxyResets++;
+            }
+            client = createHttpClient(proxy);
+            proxyFingerprint = fingerprint;
+        }
+        return client;
+    }
+
+    /**
+     * Returns the host configuration to post to a webhook with, sharing the client's proxy settings.
+     *
+     * @return null if the webhook is not an http or https URL
+     */
+    public synchronized HostConfiguration getHostConfiguration(String webhook) {
+        HttpClient httpClient = getHttpClient();
+        URL url;
+        try {
+            url = new URL(webhook);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        Protocol protocol = "https".equalsIgnoreCase(url.getProtocol()) ? https
+                : "http".equalsIgnoreCase(url.getProtocol()) ? http : null;
+        if (protocol == null || url.getHost().length() == 0) {
+            return null;
+        }
+        int port = url.getPort() > 0 ? url.getPort() : protocol.getDefaultPort();
+        String key = protocol.getScheme() + "://" + url.getHost().toLowerCase() + ":" + port;
+        HostConfiguration hostConfiguration = hostConfigurations.get(key);
+        if (hostConfiguration == null) {
+            hostConfiguration = new HostConfiguration(httpClient.getHostConfiguration());
+            hostConfiguration.setHost(url.getHost(), port, protocol);
+            hostConfigurations.put(key, hostConfiguration);
+        }
+        return hostConfiguration;
+    }
+
+    /**
+     * Resolves the host of a webhook and makes sure a few pooled connections to it
+     * are open, so that the next post skips DNS, TCP and TLS setup.
+     *
+     * Nothing is done behind a proxy: httpclient only sends the CONNECT of an https
+     * tunnel when it opens the connection itself, so an already open one would carry
+     * the request to the proxy in plain text.
+     *
+     * @return false if the host could not be reached or sits behind a proxy
+     */
+    public boolean warmUp(String webhook) {
+        HostConfiguration hostConfiguration = getHostConfiguration(webhook);
+        if (hostConfiguration == null || hostConfiguration.getProxyHost() != null) {
+            return false;
+        }
+        List<HttpConnection> connections = new ArrayList<HttpConnection>(WARM_CONNECTIONS_PER_HOST);
+        try {
+            dnsCache.resolve(hostConfiguration.getHost());
+            for (int i = 0; i < WARM_CONNECTIONS_PER_HOST; i++) {
+                HttpConnection connection = connectionManager.getConnectionWithTimeout(hostConfiguration,
+                        timeouts.getPoolMillis());
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    connection.open();
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Unable to warm up BearyChat connections to " + hostConfiguration.getHost(), e);
+            return false;
+        } finally {
+            for (HttpConnection connection : connections) {
+                // an open connection goes back to the pool as an idle keep-alive one
+                connection.releaseConnection();
+            }
+        }
+    }
+
+    public DnsCache getDnsCache() {
+        return dnsCache;
+    }
+
+    public TimeoutPolicy getTimeouts() {
+        return timeouts;
+    }
+
+    public synchronized void setTimeouts(TimeoutPolicy timeouts) {
+        this.timeouts = timeouts;
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setConnectionTimeout(timeouts.getConnectMillis());
+        params.setSoTimeout(timeouts.getReadMillis());
+        if (client != null) {
+            client.getParams().setConnectionManagerTimeout(timeouts.getPoolMillis());
+        }
+    }
+
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return connectionManager.getParams().getDefaultMaxConnectionsPerHost();
+    }
+
+    public int getMaxTotalConnections() {
+        return connectionManager.getParams().getMaxTotalConnections();
+    }
+
+    public long getIdleTimeoutSeconds() {
+        return IDLE_TIMEOUT / 1000;
+    }
+
+    public synchronized int getProxyResets() {
+        return proxyResets;
+    }
+
+    MultiThreadedHttpConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    private HttpClient createHttpClient(ProxyConfiguration proxy) {
+        HttpClient httpClient = new HttpClient(connectionManager);
+        // how long to wait for a free pooled connection
+        httpClient.getParams().setConnectionManagerTimeout(timeouts.getPoolMillis());
+        if (proxy != null) {
+            httpClient.getHostConfiguration().setProxy(proxy.name, proxy.port);
+            String username = proxy.getUserName();
+            String password = proxy.getPassword();
+            // Consider it to be passed if username specified. Sufficient?
+            if (username != null && !"".equals(username.trim())) {
+                logger.info("Using proxy authentication (user=" + username + ")");
+                // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
+                httpClient.getState().setProxyCredentials(AuthScope.ANY,
+                        new UsernamePasswordCredentials(username, password));
+            }
+        }
+        return httpClient;
+    }
+
+    static ProxyConfiguration getProxy() {
+        Jenkins instance = Jenkins.getInstance();
+        return instance == null ? null : instance.proxy;
+    }
+
+    static String fingerprint(ProxyConfiguration proxy) {
+        if (proxy == null) {
+            return "";
+        }
+        return proxy.name + ":" + proxy.port + ":" + proxy.getUserName() + ":" + proxy.getPassword();
+    }
+
+    @Terminator
+    public static void shutdown() {
+        INSTANCE.idleConnectionTimeoutThread.shutdown();
+        INSTANCE.connectionManager.shutdown();
+    }
+}
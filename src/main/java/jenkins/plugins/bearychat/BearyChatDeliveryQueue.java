@@ -0,0 +1,514 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Bounded in-memory queue and worker pool that delivers notifications off the
+ * build thread, so a slow BearyChat endpoint never holds an executor.
+ */
+public class BearyChatDeliveryQueue {
+
+    private static final Logger logger = Logger.getLogger(BearyChatDeliveryQueue.class.getName());
+
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final long RESUBMIT_BACKOFF_MILLIS = 100;
+
+    private static final BearyChatDeliveryQueue INSTANCE = new BearyChatDeliveryQueue();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final ScheduledThreadPoolExecutor retryScheduler;
+    private final ExecutorService completionExecutor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "BearyChat delivery completion"));
+    private final CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry();
+    private final RateLimiterRegistry rateLimiters = new RateLimiterRegistry();
+    private final NotificationCoalescer coalescer;
+
+    private volatile RetryPolicy retryPolicy = new RetryPolicy(RetryPolicy.DEFAULT_DEADLINE_MINUTES * 60 * 1000L);
+
+    private ThreadPoolExecutor executor;
+    private int capacity;
+    // posts released from a wait queue; they already hold their slot and token, so
+    // at most the webhooks' concurrency limits are ever waiting here
+    private final ThreadPoolExecutor releaseExecutor;
+
+    BearyChatDeliveryQueue() {
+        this.capacity = DEFAULT_CAPACITY;
+        this.executor = newExecutor(DEFAULT_WORKERS, DEFAULT_CAPACITY);
+        this.releaseExecutor = new ThreadPoolExecutor(DEFAULT_WORKERS, DEFAULT_WORKERS,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "BearyChat released delivery"));
+        this.releaseExecutor.allowCoreThreadTimeOut(true);
+        // retries only wait here, the attempt itself runs on a delivery worker
+        this.retryScheduler = new ScheduledThreadPoolExecutor(1,
+                new NamingThreadFactory(new DaemonThreadFactory(), "BearyChat retry scheduler"));
+        this.coalescer = new NotificationCoalescer(retryScheduler, new NotificationCoalescer.Sink() {
+            public void flush(QueuedNotification notification) {
+                if (!execute(notification)) {
+                    rejected.incrementAndGet();
+                    logger.warning("BearyChat delivery queue is full, dropping notification to " + notification.getChannel());
+                    giveUp(notification);
+                }
+            }
+        });
+    }
+
+    public static BearyChatDeliveryQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the worker count and queue capacity from the global configuration.
+     * Changing the capacity swaps in a new executor; the old one drains what it
+     * has already accepted before shutting down.
+     */
+    public synchronized void configure(int workers, int capacity) {
+        workers = Math.max(1, workers);
+        capacity = Math.max(1, capacity);
+        resize(releaseExecutor, workers);
+        if (capacity != this.capacity) {
+            ThreadPoolExecutor previous = executor;
+            executor = newExecutor(workers, capacity);
+            this.capacity = capacity;
+            previous.shutdown();
+            return;
+        }
+        resize(executor, workers);
+    }
+
+    private static void resize(ThreadPoolExecutor pool, int workers) {
+        if (workers > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(workers);
+            pool.setCorePoolSize(workers);
+        } else {
+            pool.setCorePoolSize(workers);
+            pool.setMaximumPoolSize(workers);
+        }
+    }
+
+    /**
+     * Journals a rendered notification in the outbox and hands it to the worker pool.
+     *
+     * @return false if the queue is full and the notification was dropped
+     */
+    public boolean submit(QueuedNotification notification) {
+        BearyChatOutbox outbox = BearyChatOutbox.get();
+        if (outbox != null) {
+            outbox.append(notification);
+        }
+        if (coalescer.isEnabled()) {
+            coalescer.add(notification);
+            return true;
+        }
+        if (execute(notification)) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        logger.warning("BearyChat delivery queue is full, dropping notification to " + notification.getChannel());
+        giveUp(notification);
+        return false;
+    }
+
+    /**
+     * Hands an already journaled notification back to the worker pool, waiting for
+     * room in the queue instead of dropping it.
+     *
+     * @return false if the queue was shut down first
+     */
+    boolean resubmit(QueuedNotification notification) {
+        while (!execute(notification)) {
+            synchronized (this) {
+                if (executor.isShutdown()) {
+                    return false;
+                }
+            }
+            try {
+                Thread.sleep(RESUBMIT_BACKOFF_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean execute(final QueuedNotification notification) {
+        ThreadPoolExecutor target;
+        synchronized (this) {
+            target = executor;
+        }
+        try {
+            target.execute(new Runnable() {
+                public void run() {
+                    deliver(notification);
+                }
+            });
+            submitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    void deliver(QueuedNotification notification) {
+        String webhook = notification.getWebhook();
+        AdaptiveConcurrencyLimit concurrency = rateLimiters.getConcurrencyLimit(webhook);
+        WebhookWaitQueue waiting = rateLimiters.getWaitQueue(webhook);
+        // behind whatever already waits for this webhook
+        if (waiting.isEmpty() && concurrency.tryAcquire()) {
+            if (rateLimiters.getBucket(webhook, notification.getChannel())
+                    .tryAcquire(notification.isUrgent(), System.nanoTime()) == 0) {
+                send(notification, concurrency);
+                return;
+            }
+            concurrency.cancel();
+        }
+        // held notifications still take room in the queue, so that its capacity bounds them too
+        if (rateLimiters.getHeld() + getDepth() >= getCapacity()) {
+            rejected.incrementAndGet();
+            logger.warning("BearyChat delivery queue is full, dropping rate-limited notification to "
+                    + notification.getChannel());
+            giveUp(notification);
+            return;
+        }
+        waiting.hold(notification);
+        // a slot may have freed up since, with nobody left to notice
+        release(webhook);
+    }
+
+    /**
+     * Hands the notifications waiting for a webhook to the release workers, as long
+     * as slots and tokens allow. Called whenever a slot frees up and when the next
+     * token is due; whatever is left waits for the next call.
+     */
+    void release(String webhook) {
+        WebhookWaitQueue waiting = rateLimiters.getWaitQueue(webhook);
+        while (!waiting.isEmpty()) {
+            final AdaptiveConcurrencyLimit concurrency = rateLimiters.getConcurrencyLimit(webhook);
+            if (!concurrency.tryAcquire()) {
+                return;
+            }
+            final QueuedNotification next = waiting.poll(rateLimiters, System.nanoTime());
+            if (next == null) {
+                concurrency.cancel();
+                scheduleWakeUp(waiting);
+                return;
+            }
+            try {
+                releaseExecutor.execute(new Runnable() {
+                    public void run() {
+                        send(next, concurrency);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down, the outbox replays it on the next start
+                concurrency.cancel();
+                return;
+            }
+        }
+    }
+
+    private void scheduleWakeUp(final WebhookWaitQueue waiting) {
+        if (!waiting.scheduleWakeUp()) {
+            return;
+        }
+        try {
+            retryScheduler.schedule(new Runnable() {
+                public void run() {
+                    waiting.wokeUp();
+                    release(waiting.getWebhook());
+                }
+            }, TimeUnit.NANOSECONDS.toMillis(waiting.getNextWaitNanos()) + 1, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            waiting.wokeUp();
+            logger.fine("Release of held BearyChat notifications not scheduled, shutting down");
+        }
+    }
+
+    /**
+     * Posts a notification that holds a slot and a token of its webhook.
+     */
+    private void send(QueuedNotification notification, AdaptiveConcurrencyLimit concurrency) {
+        if (notification.getHeldSince() != 0) {
+            rateLimiters.recordWait(System.nanoTime() - notification.getHeldSince());
+            notification.setHeldSince(0);
+        }
+
+        CircuitBreaker breaker = circuitBreakers.get(notification.getWebhook());
+        if (!breaker.tryAcquire(System.currentTimeMillis())) {
+            concurrency.cancel();
+            release(notification.getWebhook());
+            QueuedNotification overflow = circuitBreakers.park(notification);
+            if (overflow != null) {
+                logger.warning("Too many BearyChat notifications parked for " + breaker.getDisplayName()
+                        + ", dropping the oldest one");
+                giveUp(overflow);
+            }
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        ListenableFuture<DeliveryResult> future;
+        try {
+            future = notification.newBearyChatService().sendAsync(notification.getPayload());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error delivering BearyChat notification", e);
+            future = Futures.immediateFuture(DeliveryResult.fromException(e));
+        }
+        if (future.isDone()) {
+            complete(notification, concurrency, breaker, start, future);
+            return;
+        }
+        // a non-blocking transport answers on its I/O thread, which should not touch the outbox
+        final AdaptiveConcurrencyLimit limit = concurrency;
+        final CircuitBreaker circuit = breaker;
+        final QueuedNotification pending = notification;
+        final ListenableFuture<DeliveryResult> completion = future;
+        future.addListener(new Runnable() {
+            public void run() {
+                complete(pending, limit, circuit, start, completion);
+            }
+        }, completionExecutor);
+    }
+
+    private void complete(QueuedNotification notification, AdaptiveConcurrencyLimit concurrency,
+                          CircuitBreaker breaker, long start, ListenableFuture<DeliveryResult> future) {
+        DeliveryResult result;
+        try {
+            result = Futures.getUnchecked(future);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error delivering BearyChat notification", e);
+            result = DeliveryResult.fromException(e);
+        }
+        long now = System.currentTimeMillis();
+        concurrency.release(now - start, result.getStatusCode() == 429, now);
+        release(notification.getWebhook());
+        notification.attempted();
+        CircuitBreaker.State before = breaker.getState();
+        CircuitBreaker.State after = breaker.record(result.isSuccess(), now);
+        if (after == CircuitBreaker.State.OPEN && before != CircuitBreaker.State.OPEN) {
+            logger.warning("Circuit opened for BearyChat webhook " + breaker.getDisplayName());
+            scheduleProbe(breaker);
+        } else if (after == CircuitBreaker.State.CLOSED && before == CircuitBreaker.State.HALF_OPEN) {
+            logger.info("Circuit closed for BearyChat webhook " + breaker.getDisplayName());
+            releaseParked(breaker.getWebhook());
+        }
+        handle(notification, result);
+    }
+
+    /**
+     * Once the open period is over, sends one parked notification as the probe.
+     */
+    private void scheduleProbe(final CircuitBreaker breaker) {
+        try {
+            retryScheduler.schedule(new Runnable() {
+                public void run() {
+                    QueuedNotification probe = circuitBreakers.unpark(breaker.getWebhook());
+                    if (probe != null && !execute(probe)) {
+                        circuitBreakers.park(probe);
+                        scheduleProbe(breaker);
+                    }
+                }
+            }, circuitBreakers.getOpenDurationMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.fine("Circuit breaker probe not scheduled, shutting down");
+        }
+    }
+
+    /**
+     * Moves everything parked for a webhook back into the queue, retrying later
+     * for whatever does not fit right now.
+     */
+    private void releaseParked(final String webhook) {
+        QueuedNotification notification;
+        while ((notification = circuitBreakers.unpark(webhook)) != null) {
+            if (!execute(notification)) {
+                circuitBreakers.park(notification);
+                try {
+                    retryScheduler.schedule(new Runnable() {
+                        public void run() {
+                            releaseParked(webhook);
+                        }
+                    }, RESUBMIT_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    logger.fine("Release of parked BearyChat notifications not scheduled, shutting down");
+                }
+                return;
+            }
+        }
+    }
+
+    public NotificationCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public RateLimiterRegistry getRateLimiters() {
+        return rateLimiters;
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Acknowledges delivered notifications and schedules another attempt for
+     * retryable failures that can still make their deadline.
+     */
+    void handle(QueuedNotification notification, DeliveryResult result) {
+        if (result.isSuccess()) {
+            BearyChatMetrics.get().forWebhook(notification.getWebhook())
+                    .recordDelivered(System.currentTimeMillis() - notification.getCreatedAt());
+            acknowledge(notification);
+            return;
+        }
+        if (result.isRetryable()) {
+            long delay = getRetryPolicy().nextDelay(notification.getAttempts(), result.getRetryAfterMillis(),
+                    notification.getCreatedAt(), System.currentTimeMillis());
+            if (delay >= 0) {
+                retries.incrementAndGet();
+                scheduleRetry(notification, delay);
+                return;
+            }
+        }
+        abandoned.incrementAndGet();
+        logger.warning("Giving up on BearyChat notification to " + notification.getChannel() + " after "
+                + notification.getAttempts() + " attempt(s): " + result);
+        giveUp(notification);
+    }
+
+    private void scheduleRetry(final QueuedNotification notification, long delay) {
+        try {
+            retryScheduler.schedule(new Runnable() {
+                public void run() {
+                    if (!execute(notification)) {
+                        // the queue is full right now, try again shortly without counting an attempt
+                        scheduleRetry(notification, RESUBMIT_BACKOFF_MILLIS);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down, the outbox replays it on the next start
+            logger.fine("Retry of BearyChat notification not scheduled, shutting down");
+        }
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public int getScheduledRetries() {
+        return retryScheduler.getQueue().size();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * Drops a notification for good, releasing its idempotency keys so that the
+     * same build event may be notified again later.
+     */
+    private static void giveUp(QueuedNotification notification) {
+        IdempotencyCache cache = IdempotencyCache.get();
+        if (notification.getIdempotencyKey() != 0) {
+            cache.release(notification.getIdempotencyKey());
+        }
+        for (QueuedNotification part : notification.getParts()) {
+            if (part.getIdempotencyKey() != 0) {
+                cache.release(part.getIdempotencyKey());
+            }
+        }
+        acknowledge(notification);
+    }
+
+    private static void acknowledge(QueuedNotification notification) {
+        BearyChatOutbox outbox = BearyChatOutbox.get();
+        if (outbox == null) {
+            return;
+        }
+        outbox.ack(notification);
+        for (QueuedNotification part : notification.getParts()) {
+            outbox.ack(part);
+        }
+    }
+
+    public synchronized int getWorkers() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getDepth() {
+        return executor.getQueue().size();
+    }
+
+    public synchronized int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private static ThreadPoolExecutor newExecutor(int workers, int capacity) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new NamingThreadFactory(new DaemonThreadFactory(), "BearyChat delivery"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    @Terminator
+    public static void shutdown() throws InterruptedException {
+        ThreadPoolExecutor pool;
+        synchronized (INSTANCE) {
+            pool = INSTANCE.executor;
+        }
+        INSTANCE.coalescer.flushAll();
+        INSTANCE.retryScheduler.shutdownNow();
+        pool.shutdown();
+        if (!pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            logger.warning("BearyChat delivery queue did not drain before shutdown");
+        }
+        // notifications still held back are replayed from the outbox
+        INSTANCE.releaseExecutor.shutdown();
+        // posts still in flight on a non-blocking transport are replayed from the outbox
+        INSTANCE.completionExecutor.shutdown();
+    }
+}
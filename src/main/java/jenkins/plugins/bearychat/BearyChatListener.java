@@ -24,7 +24,12 @@ public class BearyChatListener extends RunListener<AbstractBuild> {
 
     @Override
     public void onCompleted(AbstractBuild r, TaskListener listener) {
-        getNotifier(r.getProject(), listener).completed(r);
+        try {
+            getNotifier(r.getProject(), listener).completed(r);
+        } finally {
+            BuildEnvironmentCache.get().invalidate(r);
+            ChangeSetDigest.invalidate(r);
+        }
         super.onCompleted(r, listener);
     }
 
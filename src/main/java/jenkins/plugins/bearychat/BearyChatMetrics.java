@@ -0,0 +1,288 @@
+package jenkins.plugins.bearychat;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Delivery counters and histograms per webhook, exposed by {@link BearyChatMetricsAction}.
+ * Webhooks are keyed by their masked URL so that the token never leaves Jenkins.
+ */
+public class BearyChatMetrics {
+
+    private static final BearyChatMetrics INSTANCE = new BearyChatMetrics();
+
+    static final String[] STATUS_CLASSES = {"2xx", "3xx", "4xx", "5xx", "error"};
+    // in the order of WebhookMetrics.getHistograms()
+    static final String[] HISTOGRAMS = {"bearychat_build_milliseconds", "bearychat_send_milliseconds",
+            "bearychat_end_to_end_milliseconds", "bearychat_payload_bytes"};
+
+    private final ConcurrentMap<String, WebhookMetrics> webhooks = new ConcurrentHashMap<String, WebhookMetrics>();
+
+    public static BearyChatMetrics get() {
+        return INSTANCE;
+    }
+
+    public WebhookMetrics forWebhook(String webhook) {
+        String key = Helper.maskWebhook(webhook);
+        WebhookMetrics metrics = webhooks.get(key);
+        if (metrics == null) {
+            WebhookMetrics created = new WebhookMetrics();
+            metrics = webhooks.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    public Map<String, WebhookMetrics> getWebhooks() {
+        return new TreeMap<String, WebhookMetrics>(webhooks);
+    }
+
+    public static class WebhookMetrics {
+
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong[] failures = new AtomicLong[STATUS_CLASSES.length];
+        private final LogHistogram buildMillis = new LogHistogram();
+        private final LogHistogram sendMillis = new LogHistogram();
+        // only successful posts, so that timeouts do not feed the adaptive read timeout
+        private final LogHistogram successMillis = new LogHistogram();
+        private final LogHistogram endToEndMillis = new LogHistogram();
+        private final LogHistogram payloadBytes = new LogHistogram();
+
+        WebhookMetrics() {
+            for (int i = 0; i < failures.length; i++) {
+                failures[i] = new AtomicLong();
+            }
+        }
+
+        /**
+         * Records one HTTP attempt; a status code of 0 means it failed before a response arrived.
+         */
+        public void recordAttempt(int statusCode, long millis, int bytes) {
+            attempts.incrementAndGet();
+            sendMillis.record(millis);
+            payloadBytes.record(bytes);
+            if (statusCode >= 200 && statusCode < 300) {
+                successes.incrementAndGet();
+                successMillis.record(millis);
+            } else {
+                failures[statusClass(statusCode)].incrementAndGet();
+            }
+        }
+
+        public void recordBuild(long millis) {
+            buildMillis.record(millis);
+        }
+
+        public void recordDelivered(long millis) {
+            endToEndMillis.record(millis);
+        }
+
+        static int statusClass(int statusCode) {
+            if (statusCode < 200 || statusCode >= 600) {
+                return STATUS_CLASSES.length - 1;
+            }
+            return statusCode / 100 - 2;
+        }
+
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getSuccesses() {
+            return successes.get();
+        }
+
+        public long getFailures(String statusClass) {
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                if (STATUS_CLASSES[i].equals(statusClass)) {
+                    return failures[i].get();
+                }
+            }
+            return 0;
+        }
+
+        public LogHistogram getBuildMillis() {
+            return buildMillis;
+        }
+
+        public LogHistogram getSendMillis() {
+            return sendMillis;
+        }
+
+        public LogHistogram getSuccessMillis() {
+            return successMillis;
+        }
+
+        public LogHistogram getEndToEndMillis() {
+            return endToEndMillis;
+        }
+
+        public LogHistogram getPayloadBytes() {
+            return payloadBytes;
+        }
+
+        LogHistogram[] getHistograms() {
+            return new LogHistogram[] {buildMillis, sendMillis, endToEndMillis, payloadBytes};
+        }
+    }
+
+    public JSONObject toJSON(BearyChatDeliveryQueue queue) {
+        JSONObject json = new JSONObject();
+        JSONObject gauges = new JSONObject();
+        gauges.put("queueDepth", queue.getDepth());
+        gauges.put("queueCapacity", queue.getCapacity());
+        gauges.put("activeWorkers", queue.getActiveWorkers());
+        gauges.put("scheduledRetries", queue.getScheduledRetries());
+        gauges.put("held", queue.getRateLimiters().getHeld());
+        gauges.put("coalescerBuffered", queue.getCoalescer().getBuffered());
+        gauges.put("submitted", queue.getSubmitted());
+        gauges.put("rejected", queue.getRejected());
+        gauges.put("retries", queue.getRetries());
+        gauges.put("abandoned", queue.getAbandoned());
+        BearyChatOutbox outbox = BearyChatOutbox.get();
+        if (outbox != null) {
+            gauges.put("outboxPending", outbox.getPending());
+        }
+        json.put("queue", gauges);
+
+        AuthorNameCache authorNames = AuthorNameCache.get();
+        JSONObject authors = new JSONObject();
+        authors.put("size", authorNames.getSize());
+        authors.put("hits", authorNames.getHits());
+        authors.put("misses", authorNames.getMisses());
+        authors.put("hitRate", hitRate(authorNames.getHits(), authorNames.getMisses()));
+        json.put("authorNames", authors);
+
+        JSONObject hooks = new JSONObject();
+        for (Map.Entry<String, WebhookMetrics> entry : getWebhooks().entrySet()) {
+            WebhookMetrics metrics = entry.getValue();
+            JSONObject hook = new JSONObject();
+            hook.put("attempts", metrics.getAttempts());
+            hook.put("successes", metrics.getSuccesses());
+            JSONObject failures = new JSONObject();
+            for (String statusClass : STATUS_CLASSES) {
+                failures.put(statusClass, metrics.getFailures(statusClass));
+            }
+            hook.put("failures", failures);
+            hook.put("buildMillis", toJSON(metrics.getBuildMillis()));
+            hook.put("sendMillis", toJSON(metrics.getSendMillis()));
+            hook.put("endToEndMillis", toJSON(metrics.getEndToEndMillis()));
+            hook.put("payloadBytes", toJSON(metrics.getPayloadBytes()));
+            hooks.put(entry.getKey(), hook);
+        }
+        json.put("webhooks", hooks);
+        return json;
+    }
+
+    static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    private static JSONObject toJSON(LogHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("sum", histogram.getSum());
+        json.put("max", histogram.getMax());
+        json.put("p50", histogram.getQuantile(0.5));
+        json.put("p90", histogram.getQuantile(0.9));
+        json.put("p99", histogram.getQuantile(0.99));
+        return json;
+    }
+
+    /**
+     * Renders everything in the Prometheus text exposition format.
+     */
+    public String toPrometheus(BearyChatDeliveryQueue queue) {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "bearychat_queue_depth", queue.getDepth());
+        gauge(out, "bearychat_queue_capacity", queue.getCapacity());
+        gauge(out, "bearychat_active_workers", queue.getActiveWorkers());
+        gauge(out, "bearychat_scheduled_retries", queue.getScheduledRetries());
+        gauge(out, "bearychat_held_notifications", queue.getRateLimiters().getHeld());
+        gauge(out, "bearychat_coalescer_buffered", queue.getCoalescer().getBuffered());
+        counter(out, "bearychat_submitted_total", queue.getSubmitted());
+        counter(out, "bearychat_rejected_total", queue.getRejected());
+        counter(out, "bearychat_retries_total", queue.getRetries());
+        counter(out, "bearychat_abandoned_total", queue.getAbandoned());
+        BearyChatOutbox outbox = BearyChatOutbox.get();
+        if (outbox != null) {
+            gauge(out, "bearychat_outbox_pending", outbox.getPending());
+        }
+        AuthorNameCache authorNames = AuthorNameCache.get();
+        gauge(out, "bearychat_author_cache_size", authorNames.getSize());
+        counter(out, "bearychat_author_cache_hits_total", authorNames.getHits());
+        counter(out, "bearychat_author_cache_misses_total", authorNames.getMisses());
+
+        Map<String, WebhookMetrics> hooks = getWebhooks();
+        if (hooks.isEmpty()) {
+            return out.toString();
+        }
+        out.append("# TYPE bearychat_attempts_total counter\n");
+        for (Map.Entry<String, WebhookMetrics> entry : hooks.entrySet()) {
+            sample(out, "bearychat_attempts_total", label(entry.getKey()), entry.getValue().getAttempts());
+        }
+        out.append("# TYPE bearychat_successes_total counter\n");
+        for (Map.Entry<String, WebhookMetrics> entry : hooks.entrySet()) {
+            sample(out, "bearychat_successes_total", label(entry.getKey()), entry.getValue().getSuccesses());
+        }
+        out.append("# TYPE bearychat_failures_total counter\n");
+        for (Map.Entry<String, WebhookMetrics> entry : hooks.entrySet()) {
+            for (String statusClass : STATUS_CLASSES) {
+                sample(out, "bearychat_failures_total", label(entry.getKey()) + ",status=\"" + statusClass + "\"",
+                        entry.getValue().getFailures(statusClass));
+            }
+        }
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            histograms(out, HISTOGRAMS[i], hooks, i);
+        }
+        return out.toString();
+    }
+
+    private static void histograms(StringBuilder out, String name, Map<String, WebhookMetrics> hooks, int index) {
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (Map.Entry<String, WebhookMetrics> entry : hooks.entrySet()) {
+            WebhookMetrics metrics = entry.getValue();
+            LogHistogram histogram = metrics.getHistograms()[index];
+            String labels = label(entry.getKey());
+            int last = LogHistogram.BUCKETS - 1;
+            while (last > 0 && histogram.getBucketCount(last) == 0) {
+                last--;
+            }
+            long cumulative = 0;
+            for (int i = 0; i <= last; i++) {
+                cumulative += histogram.getBucketCount(i);
+                sample(out, name + "_bucket", labels + ",le=\"" + LogHistogram.upperBound(i) + "\"", cumulative);
+            }
+            long count = histogram.getCount();
+            sample(out, name + "_bucket", labels + ",le=\"+Inf\"", count);
+            sample(out, name + "_sum", labels, histogram.getSum());
+            sample(out, name + "_count", labels, count);
+        }
+    }
+
+    private static void gauge(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String label(String webhook) {
+        return "webhook=\"" + webhook.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
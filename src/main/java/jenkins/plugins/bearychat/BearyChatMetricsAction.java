@@ -0,0 +1,44 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves {@link BearyChatMetrics} as JSON at {@code /bearychat-metrics/} and in the
+ * Prometheus text format at {@code /bearychat-metrics/prometheus}.
+ */
+@Extension
+public class BearyChatMetricsAction implements RootAction {
+
+    public static final String URL_NAME = "bearychat-metrics";
+
+    public String getIconFileName() {
+        // not shown in the side panel
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "BearyChat Metrics";
+    }
+
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(BearyChatMetrics.get().toJSON(BearyChatDeliveryQueue.get()).toString());
+    }
+
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+        rsp.setContentType("text/plain; version=0.0.4;charset=UTF-8");
+        rsp.getWriter().write(BearyChatMetrics.get().toPrometheus(BearyChatDeliveryQueue.get()));
+    }
+}
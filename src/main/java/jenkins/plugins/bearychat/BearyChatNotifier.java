@@ -1,6 +1,7 @@
 package jenkins.plugins.bearychat;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -41,6 +42,16 @@ public class BearyChatNotifier extends Notifier {
     private boolean isNotifyOnBackToNormal;
     private boolean isNotifyRepeatedFailure;
     private boolean isIncludeCustomMessage;
+    private String payloadFormat;
+    private int readTimeoutSeconds;
+    private String startedLayout;
+    private String completedLayout;
+
+    // compiled on first use, a notifier loaded from disk has not been through a setter
+    private transient volatile MessageTemplate customStartTemplate;
+    private transient volatile MessageTemplate customEndTemplate;
+    private transient volatile MessageTemplate startedLayoutTemplate;
+    private transient volatile MessageTemplate completedLayoutTemplate;
 
     @Override
     public DescriptorImpl getDescriptor() {
@@ -104,6 +115,90 @@ public class BearyChatNotifier extends Notifier {
         return customEndMessage;
     }
 
+    /**
+     * @return the name of the {@link PayloadFormat} for this job, or null to use the global one
+     */
+    public String getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    public void setPayloadFormat(String payloadFormat) {
+        this.payloadFormat = StringUtils.isEmpty(payloadFormat) ? null : payloadFormat;
+    }
+
+    /**
+     * @return the read timeout for this job in seconds, or 0 to use the global one
+     */
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    public void setReadTimeoutSeconds(int readTimeoutSeconds) {
+        this.readTimeoutSeconds = Math.max(0, readTimeoutSeconds);
+    }
+
+    /**
+     * @return the title of the started notification for this job, or null for the default one
+     */
+    public String getStartedLayout() {
+        return startedLayout;
+    }
+
+    public void setStartedLayout(String startedLayout) {
+        this.startedLayout = StringUtils.isBlank(startedLayout) ? null : startedLayout;
+        this.startedLayoutTemplate = null;
+    }
+
+    /**
+     * @return the title of the completed notification for this job, or null for the default one
+     */
+    public String getCompletedLayout() {
+        return completedLayout;
+    }
+
+    public void setCompletedLayout(String completedLayout) {
+        this.completedLayout = StringUtils.isBlank(completedLayout) ? null : completedLayout;
+        this.completedLayoutTemplate = null;
+    }
+
+    MessageTemplate getCustomStartTemplate() {
+        MessageTemplate template = customStartTemplate;
+        if (template == null) {
+            customStartTemplate = template = MessageTemplate.compile(customStartMessage);
+        }
+        return template;
+    }
+
+    MessageTemplate getCustomEndTemplate() {
+        MessageTemplate template = customEndTemplate;
+        if (template == null) {
+            customEndTemplate = template = MessageTemplate.compile(customEndMessage);
+        }
+        return template;
+    }
+
+    /**
+     * @return the compiled started layout, or null for the default one
+     */
+    MessageTemplate getStartedLayoutTemplate() {
+        MessageTemplate template = startedLayoutTemplate;
+        if (template == null && startedLayout != null) {
+            startedLayoutTemplate = template = MessageTemplate.compile(startedLayout);
+        }
+        return template;
+    }
+
+    /**
+     * @return the compiled completed layout, or null for the default one
+     */
+    MessageTemplate getCompletedLayoutTemplate() {
+        MessageTemplate template = completedLayoutTemplate;
+        if (template == null && completedLayout != null) {
+            completedLayoutTemplate = template = MessageTemplate.compile(completedLayout);
+        }
+        return template;
+    }
+
     @DataBoundConstructor
     public BearyChatNotifier(final String webhook, final String channel, final String buildServerUrl,
                              final boolean isNotifyOnStarting, final boolean isNotifyOnAborted, final boolean isNotifyOnFailure,
@@ -124,13 +219,22 @@ public class BearyChatNotifier extends Notifier {
         this.isIncludeCustomMessage = isIncludeCustomMessage;
         this.customStartMessage = customStartMessage;
         this.customEndMessage = customEndMessage;
+        this.customStartTemplate = MessageTemplate.compile(customStartMessage);
+        this.customEndTemplate = MessageTemplate.compile(customEndMessage);
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
     }
 
-    public BearyChatService newBearyChatService(AbstractBuild r, BuildListener listener) {
+    public StandardBearyChatService newBearyChatService(AbstractBuild r, BuildListener listener) {
+        return newBearyChatService(r, listener, r.isBuilding() ? ActiveNotifier.PHASE_STARTED : ActiveNotifier.PHASE_COMPLETED);
+    }
+
+    /**
+     * @param phase the notification being sent, the build environment is read once per phase
+     */
+    public StandardBearyChatService newBearyChatService(AbstractBuild r, BuildListener listener, String phase) {
         String webhook = this.webhook;
         if (StringUtils.isEmpty(webhook)) {
             webhook = getDescriptor().getWebhook();
@@ -143,7 +247,7 @@ public class BearyChatNotifier extends Notifier {
 
         EnvVars env = null;
         try {
-            env = r.getEnvironment(listener);
+            env = BuildEnvironmentCache.get().getEnvironment(r, phase, listener);
         } catch (Exception e) {
             listener.getLogger().println("Error retrieving environment vars: " + e.getMessage());
             env = new EnvVars();
@@ -152,7 +256,10 @@ public class BearyChatNotifier extends Notifier {
         channel = env.expand(channel);
 
         logger.info("webhook: " + webhook);
-        return new StandardBearyChatService(webhook, channel);
+        StandardBearyChatService service = new StandardBearyChatService(webhook, channel);
+        service.setPayloadFormat(PayloadFormat.fromName(payloadFormat, getDescriptor().getPayloadFormat()));
+        service.setReadTimeoutMillis(readTimeoutSeconds * 1000);
+        return service;
     }
 
     @Override
@@ -180,9 +287,49 @@ public class BearyChatNotifier extends Notifier {
         private String webhook;
         private String channel;
         private String buildServerUrl;
+        private PayloadFormat payloadFormat;
+        private int maxPayloadBytes;
+        private TransportType transport;
+        private int asyncIoThreads;
+        private int asyncMaxConnections;
+        private int deliveryWorkers;
+        private int deliveryQueueCapacity;
+        private int retryDeadlineMinutes;
+        private int circuitFailureRateThreshold;
+        private int circuitWindowSize;
+        private int circuitMinimumCalls;
+        private int circuitOpenSeconds;
+        private int rateLimitPerMinute;
+        private int rateLimitBurst;
+        private int maxConcurrency;
+        private int connectTimeoutSeconds;
+        private int readTimeoutSeconds;
+        private int poolTimeoutSeconds;
+        private boolean adaptiveTimeout;
+        private int adaptiveTimeoutFloorSeconds;
+        private int adaptiveTimeoutCeilingSeconds;
+        private boolean coalesceEnabled;
+        private int coalesceWindowSeconds;
+        private int coalesceMaxBatch;
 
         public DescriptorImpl() {
             load();
+            applyDeliverySettings();
+        }
+
+        private void applyDeliverySettings() {
+            BearyChatDeliveryQueue queue = BearyChatDeliveryQueue.get();
+            queue.configure(getDeliveryWorkers(), getDeliveryQueueCapacity());
+            queue.setRetryPolicy(new RetryPolicy(getRetryDeadlineMinutes() * 60 * 1000L));
+            queue.getCircuitBreakers().configure(getCircuitFailureRateThreshold(), getCircuitWindowSize(),
+                    getCircuitMinimumCalls(), getCircuitOpenSeconds());
+            queue.getRateLimiters().configure(getRateLimitPerMinute(), getRateLimitBurst(), getMaxConcurrency());
+            queue.getCoalescer().configure(isCoalesceEnabled(), getCoalesceWindowSeconds(), getCoalesceMaxBatch(),
+                    getMaxPayloadBytes());
+            BearyChatConnectionPool.get().setTimeouts(new TimeoutPolicy(getConnectTimeoutSeconds() * 1000,
+                    getReadTimeoutSeconds() * 1000, getPoolTimeoutSeconds() * 1000, isAdaptiveTimeout(),
+                    getAdaptiveTimeoutFloorSeconds() * 1000, getAdaptiveTimeoutCeilingSeconds() * 1000));
+            BearyChatTransports.get().configure(getTransport(), getAsyncIoThreads(), getAsyncMaxConnections());
         }
 
         public String getWebhook() {
@@ -203,6 +350,134 @@ public class BearyChatNotifier extends Notifier {
             }
         }
 
+        public PayloadFormat getPayloadFormat() {
+            return payloadFormat != null ? payloadFormat : PayloadFormat.FORM;
+        }
+
+        public PayloadFormat[] getPayloadFormats() {
+            return PayloadFormat.values();
+        }
+
+        public int getMaxPayloadBytes() {
+            return maxPayloadBytes > 0 ? maxPayloadBytes : BearyChatPayload.DEFAULT_MAX_BYTES;
+        }
+
+        public TransportType getTransport() {
+            return transport != null ? transport : TransportType.HTTP_CLIENT;
+        }
+
+        public TransportType[] getTransports() {
+            return TransportType.values();
+        }
+
+        public int getAsyncIoThreads() {
+            return asyncIoThreads > 0 ? asyncIoThreads : AsyncHttpTransport.DEFAULT_IO_THREADS;
+        }
+
+        public int getAsyncMaxConnections() {
+            return asyncMaxConnections > 0 ? asyncMaxConnections : AsyncHttpTransport.DEFAULT_MAX_CONNECTIONS;
+        }
+
+        public BearyChatTransports getTransportRegistry() {
+            return BearyChatTransports.get();
+        }
+
+        public int getDeliveryWorkers() {
+            return deliveryWorkers > 0 ? deliveryWorkers : BearyChatDeliveryQueue.DEFAULT_WORKERS;
+        }
+
+        public int getDeliveryQueueCapacity() {
+            return deliveryQueueCapacity > 0 ? deliveryQueueCapacity : BearyChatDeliveryQueue.DEFAULT_CAPACITY;
+        }
+
+        public int getRetryDeadlineMinutes() {
+            return retryDeadlineMinutes > 0 ? retryDeadlineMinutes : RetryPolicy.DEFAULT_DEADLINE_MINUTES;
+        }
+
+        public int getCircuitFailureRateThreshold() {
+            return circuitFailureRateThreshold > 0 ? circuitFailureRateThreshold : CircuitBreakerRegistry.DEFAULT_FAILURE_RATE_THRESHOLD;
+        }
+
+        public int getCircuitWindowSize() {
+            return circuitWindowSize > 0 ? circuitWindowSize : CircuitBreakerRegistry.DEFAULT_WINDOW_SIZE;
+        }
+
+        public int getCircuitMinimumCalls() {
+            return circuitMinimumCalls > 0 ? circuitMinimumCalls : CircuitBreakerRegistry.DEFAULT_MINIMUM_CALLS;
+        }
+
+        public int getCircuitOpenSeconds() {
+            return circuitOpenSeconds > 0 ? circuitOpenSeconds : CircuitBreakerRegistry.DEFAULT_OPEN_SECONDS;
+        }
+
+        public int getRateLimitPerMinute() {
+            return rateLimitPerMinute > 0 ? rateLimitPerMinute : RateLimiterRegistry.DEFAULT_PER_MINUTE;
+        }
+
+        public int getRateLimitBurst() {
+            return rateLimitBurst > 0 ? rateLimitBurst : RateLimiterRegistry.DEFAULT_BURST;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency > 0 ? maxConcurrency : RateLimiterRegistry.DEFAULT_MAX_CONCURRENCY;
+        }
+
+        public int getConnectTimeoutSeconds() {
+            return connectTimeoutSeconds > 0 ? connectTimeoutSeconds : TimeoutPolicy.DEFAULT_CONNECT_SECONDS;
+        }
+
+        public int getReadTimeoutSeconds() {
+            return readTimeoutSeconds > 0 ? readTimeoutSeconds : TimeoutPolicy.DEFAULT_READ_SECONDS;
+        }
+
+        public int getPoolTimeoutSeconds() {
+            return poolTimeoutSeconds > 0 ? poolTimeoutSeconds : TimeoutPolicy.DEFAULT_POOL_SECONDS;
+        }
+
+        public boolean isAdaptiveTimeout() {
+            return adaptiveTimeout;
+        }
+
+        public int getAdaptiveTimeoutFloorSeconds() {
+            return adaptiveTimeoutFloorSeconds > 0 ? adaptiveTimeoutFloorSeconds : TimeoutPolicy.DEFAULT_FLOOR_SECONDS;
+        }
+
+        public int getAdaptiveTimeoutCeilingSeconds() {
+            return adaptiveTimeoutCeilingSeconds > 0 ? adaptiveTimeoutCeilingSeconds : TimeoutPolicy.DEFAULT_CEILING_SECONDS;
+        }
+
+        public boolean isCoalesceEnabled() {
+            return coalesceEnabled;
+        }
+
+        public int getCoalesceWindowSeconds() {
+            return coalesceWindowSeconds > 0 ? coalesceWindowSeconds : NotificationCoalescer.DEFAULT_WINDOW_SECONDS;
+        }
+
+        public int getCoalesceMaxBatch() {
+            return coalesceMaxBatch > 0 ? coalesceMaxBatch : NotificationCoalescer.DEFAULT_MAX_BATCH;
+        }
+
+        public RateLimiterRegistry getRateLimiters() {
+            return BearyChatDeliveryQueue.get().getRateLimiters();
+        }
+
+        public Collection<CircuitBreaker> getCircuitBreakers() {
+            return BearyChatDeliveryQueue.get().getCircuitBreakers().getBreakers();
+        }
+
+        public BearyChatDeliveryQueue getDeliveryQueue() {
+            return BearyChatDeliveryQueue.get();
+        }
+
+        public BearyChatOutbox getOutbox() {
+            return BearyChatOutbox.get();
+        }
+
+        public BearyChatConnectionPool getConnectionPool() {
+            return BearyChatConnectionPool.get();
+        }
+
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
             return true;
         }
@@ -221,9 +496,14 @@ public class BearyChatNotifier extends Notifier {
             boolean isIncludeCustomMessage = "on".equals(sr.getParameter("isIncludeCustomMessage"));
             String customStartMessage = sr.getParameter("customStartMessage");
             String customEndMessage = sr.getParameter("customEndMessage");
-            return new BearyChatNotifier(webhook, channel, buildServerUrl, isNotifyOnStarting, isNotifyOnAborted,
+            BearyChatNotifier notifier = new BearyChatNotifier(webhook, channel, buildServerUrl, isNotifyOnStarting, isNotifyOnAborted,
                     isNotifyOnFailure, isNotifyOnNotBuilt, isNotifyOnSuccess, isNotifyOnUnstable, isNotifyOnBackToNormal,
                     isIncludeCustomMessage, customStartMessage, customEndMessage);
+            notifier.setPayloadFormat(sr.getParameter("payloadFormat"));
+            notifier.setReadTimeoutSeconds(parseInt(sr.getParameter("readTimeoutSeconds"), 0));
+            notifier.setStartedLayout(sr.getParameter("startedLayout"));
+            notifier.setCompletedLayout(sr.getParameter("completedLayout"));
+            return notifier;
         }
 
         @Override
@@ -238,12 +518,52 @@ public class BearyChatNotifier extends Notifier {
             if (buildServerUrl != null && !buildServerUrl.endsWith("/")) {
                 buildServerUrl = buildServerUrl + "/";
             }
+            payloadFormat = PayloadFormat.fromName(sr.getParameter("payloadFormat"), PayloadFormat.FORM);
+            maxPayloadBytes = parseInt(sr.getParameter("maxPayloadBytes"), BearyChatPayload.DEFAULT_MAX_BYTES);
+            transport = TransportType.fromName(sr.getParameter("transport"), TransportType.HTTP_CLIENT);
+            asyncIoThreads = parseInt(sr.getParameter("asyncIoThreads"), AsyncHttpTransport.DEFAULT_IO_THREADS);
+            asyncMaxConnections = parseInt(sr.getParameter("asyncMaxConnections"), AsyncHttpTransport.DEFAULT_MAX_CONNECTIONS);
+            deliveryWorkers = parseInt(sr.getParameter("deliveryWorkers"), BearyChatDeliveryQueue.DEFAULT_WORKERS);
+            deliveryQueueCapacity = parseInt(sr.getParameter("deliveryQueueCapacity"), BearyChatDeliveryQueue.DEFAULT_CAPACITY);
+            retryDeadlineMinutes = parseInt(sr.getParameter("retryDeadlineMinutes"), RetryPolicy.DEFAULT_DEADLINE_MINUTES);
+            circuitFailureRateThreshold = Math.min(100, parseInt(sr.getParameter("circuitFailureRateThreshold"), CircuitBreakerRegistry.DEFAULT_FAILURE_RATE_THRESHOLD));
+            circuitWindowSize = parseInt(sr.getParameter("circuitWindowSize"), CircuitBreakerRegistry.DEFAULT_WINDOW_SIZE);
+            circuitMinimumCalls = parseInt(sr.getParameter("circuitMinimumCalls"), CircuitBreakerRegistry.DEFAULT_MINIMUM_CALLS);
+            circuitOpenSeconds = parseInt(sr.getParameter("circuitOpenSeconds"), CircuitBreakerRegistry.DEFAULT_OPEN_SECONDS);
+            rateLimitPerMinute = parseInt(sr.getParameter("rateLimitPerMinute"), RateLimiterRegistry.DEFAULT_PER_MINUTE);
+            rateLimitBurst = parseInt(sr.getParameter("rateLimitBurst"), RateLimiterRegistry.DEFAULT_BURST);
+            maxConcurrency = parseInt(sr.getParameter("maxConcurrency"), RateLimiterRegistry.DEFAULT_MAX_CONCURRENCY);
+            connectTimeoutSeconds = parseInt(sr.getParameter("connectTimeoutSeconds"), TimeoutPolicy.DEFAULT_CONNECT_SECONDS);
+            readTimeoutSeconds = parseInt(sr.getParameter("readTimeoutSeconds"), TimeoutPolicy.DEFAULT_READ_SECONDS);
+            poolTimeoutSeconds = parseInt(sr.getParameter("poolTimeoutSeconds"), TimeoutPolicy.DEFAULT_POOL_SECONDS);
+            adaptiveTimeout = "on".equals(sr.getParameter("adaptiveTimeout"));
+            adaptiveTimeoutFloorSeconds = parseInt(sr.getParameter("adaptiveTimeoutFloorSeconds"), TimeoutPolicy.DEFAULT_FLOOR_SECONDS);
+            adaptiveTimeoutCeilingSeconds = parseInt(sr.getParameter("adaptiveTimeoutCeilingSeconds"), TimeoutPolicy.DEFAULT_CEILING_SECONDS);
+            coalesceEnabled = "on".equals(sr.getParameter("coalesceEnabled"));
+            coalesceWindowSeconds = parseInt(sr.getParameter("coalesceWindowSeconds"), NotificationCoalescer.DEFAULT_WINDOW_SECONDS);
+            coalesceMaxBatch = parseInt(sr.getParameter("coalesceMaxBatch"), NotificationCoalescer.DEFAULT_MAX_BATCH);
+            applyDeliverySettings();
             save();
             return super.configure(sr, formData);
         }
 
+        private static int parseInt(String value, int defaultValue) {
+            if (StringUtils.isBlank(value)) {
+                return defaultValue;
+            }
+            try {
+                int parsed = Integer.parseInt(value.trim());
+                return parsed > 0 ? parsed : defaultValue;
+            } catch (NumberFormatException e) {
+                logger.warning("Invalid number in BearyChat configuration: " + value);
+                return defaultValue;
+            }
+        }
+
         BearyChatService getBearyChatService(final String webhook, final String channel) {
-            return new StandardBearyChatService(webhook, channel);
+            StandardBearyChatService service = new StandardBearyChatService(webhook, channel);
+            service.setPayloadFormat(getPayloadFormat());
+            return service;
         }
 
         @Override
@@ -0,0 +1,451 @@
+package jenkins.plugins.bearychat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Crash-safe journal of notifications that have not been delivered yet.
+ *
+ * Every notification is appended to the active segment under
+ * {@code JENKINS_HOME/bearychat-outbox} before it is handed to a worker, and an
+ * acknowledgement record is appended to the same segment once it has been
+ * delivered, so each segment can be replayed on its own. Segments are rotated
+ * by size and deleted as soon as every notification in them has been
+ * acknowledged. Older segments that still wait for acknowledgements keep a few
+ * writers open, so that a burst of acks does not reopen the file for each one.
+ * On startup the remaining segments are streamed back into the delivery queue
+ * one at a time, which keeps memory bounded by the segment size.
+ */
+public class BearyChatOutbox {
+
+    private static final Logger logger = Logger.getLogger(BearyChatOutbox.class.getName());
+
+    public static final String DIRECTORY = "bearychat-outbox";
+
+    static final long SEGMENT_SIZE = 4 * 1024 * 1024L;
+    static final int MAX_OPEN_SEGMENTS = 8;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String OP_PUT = "put";
+    private static final String OP_ACK = "ack";
+
+    private static volatile BearyChatOutbox instance;
+
+    private final File directory;
+    private final long segmentSize;
+    // live (unacknowledged) entries per segment, including the active one
+    private final Map<Integer, Integer> live = new TreeMap<Integer, Integer>();
+
+    // writers of older segments, for their acks; the least recently used one is closed
+    private final Map<Integer, Writer> segmentWriters = new LinkedHashMap<Integer, Writer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Writer> eldest) {
+            if (size() > MAX_OPEN_SEGMENTS) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private boolean opened;
+    private int activeSegment;
+    private int nextSequence;
+    private long activeSize;
+    // null while a rotation has failed, the next append tries again
+    private Writer writer;
+
+    BearyChatOutbox(File directory) {
+        this(directory, SEGMENT_SIZE);
+    }
+
+    BearyChatOutbox(File directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return the outbox of the running Jenkins, or null before it has been opened
+     */
+    public static BearyChatOutbox get() {
+        return instance;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void start() throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        BearyChatOutbox outbox = new BearyChatOutbox(new File(jenkins.getRootDir(), DIRECTORY));
+        final List<Integer> segments = outbox.open();
+        instance = outbox;
+        if (segments.isEmpty()) {
+            return;
+        }
+        final BearyChatOutbox replaying = outbox;
+        Thread replay = new Thread("BearyChat outbox replay") {
+            @Override
+            public void run() {
+                replaying.replay(segments, BearyChatDeliveryQueue.get());
+            }
+        };
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    @Terminator
+    public static void stop() {
+        BearyChatOutbox outbox = instance;
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Opens a fresh active segment after the existing ones.
+     *
+     * @return the existing segments that still hold unacknowledged entries, oldest first
+     */
+    synchronized List<Integer> open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        List<Integer> segments = listSegments();
+        int last = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+        openSegment(last + 1);
+        opened = true;
+        return segments;
+    }
+
+    /**
+     * Streams the unacknowledged entries of the given segments into the queue,
+     * waiting for room in the queue rather than dropping entries.
+     */
+    void replay(List<Integer> segments, BearyChatDeliveryQueue queue) {
+        int replayed = 0;
+        for (Integer segment : segments) {
+            Collection<QueuedNotification> pending = readPending(segment);
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    deleteSegment(segment);
+                    continue;
+                }
+                live.put(segment, pending.size());
+            }
+            for (QueuedNotification notification : pending) {
+                if (!queue.resubmit(notification)) {
+                    return;
+                }
+                replayed++;
+            }
+        }
+        logger.info("Replayed " + replayed + " pending BearyChat notification(s) from the outbox");
+    }
+
+    /**
+     * Journals a notification before it is delivered and stamps it with its journal id.
+     */
+    public synchronized void append(QueuedNotification notification) {
+        if (writer == null && !(opened && rotate())) {
+            return;
+        }
+        long id = ((long) activeSegment << 32) | (nextSequence & 0xFFFFFFFFL);
+        JSONObject record = new JSONObject();
+        record.put("op", OP_PUT);
+        record.put("id", id);
+        record.put("webhook", notification.getWebhook());
+        record.put("channel", notification.getChannel());
+        record.put("createdAt", notification.getCreatedAt());
+        record.put("urgent", notification.isUrgent());
+        record.put("format", notification.getPayloadFormat().name());
+        if (notification.getReadTimeoutMillis() > 0) {
+            record.put("readTimeout", notification.getReadTimeoutMillis());
+        }
+        if (notification.getIdempotencyKey() != 0) {
+            record.put("key", notification.getIdempotencyKey());
+        }
+        // the payload is written straight after the small metadata record rather than as a nested tree
+        String metadata = record.toString();
+        String line = metadata.substring(0, metadata.length() - 1) + ",\"data\":" + PayloadWriter.toJson(notification.getPayload()) + "}";
+        if (write(writer, line)) {
+            nextSequence++;
+            increment(activeSegment);
+            notification.setJournalId(id);
+        }
+        if (activeSize >= segmentSize) {
+            rotate();
+        }
+    }
+
+    /**
+     * Records that a notification no longer needs to be delivered.
+     */
+    public synchronized void ack(QueuedNotification notification) {
+        long id = notification.getJournalId();
+        if (id < 0 || !opened) {
+            return;
+        }
+        notification.setJournalId(-1);
+        int segment = (int) (id >>> 32);
+        Integer count = live.get(segment);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1 && segment != activeSegment) {
+            // the last straggler of an older segment, nothing left in it to replay
+            deleteSegment(segment);
+            return;
+        }
+        JSONObject record = new JSONObject();
+        record.put("op", OP_ACK);
+        record.put("id", id);
+        if (segment == activeSegment && writer != null) {
+            write(writer, record.toString());
+        } else {
+            // keep the ack next to its entry so that every segment replays on its own
+            appendTo(segment, record);
+        }
+        live.put(segment, Math.max(0, count - 1));
+        if (writer != null && activeSize >= segmentSize) {
+            rotate();
+        }
+    }
+
+    public synchronized int getPending() {
+        int pending = 0;
+        for (Integer count : live.values()) {
+            pending += count;
+        }
+        return pending;
+    }
+
+    public synchronized int getSegments() {
+        return live.size();
+    }
+
+    synchronized void close() {
+        opened = false;
+        for (Writer out : segmentWriters.values()) {
+            closeQuietly(out);
+        }
+        segmentWriters.clear();
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing BearyChat outbox", e);
+        }
+        writer = null;
+    }
+
+    private boolean write(Writer out, String record) {
+        try {
+            out.write(record);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing BearyChat outbox", e);
+            return false;
+        }
+        if (out == writer) {
+            // close enough: the size only drives rotation
+            activeSize += record.length() + 1;
+        }
+        return true;
+    }
+
+    private void appendTo(int segment, JSONObject record) {
+        Writer out = segmentWriters.get(segment);
+        if (out == null) {
+            try {
+                out = openWriter(segmentFile(segment));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error writing BearyChat outbox segment " + segment, e);
+                return;
+            }
+            segmentWriters.put(segment, out);
+        }
+        if (!write(out, record.toString())) {
+            segmentWriters.remove(segment);
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Moves on to a new active segment. The old one stays open for its acks if it
+     * still has entries waiting, and is deleted otherwise.
+     *
+     * @return false if the new segment could not be opened, journaling stops until the next try
+     */
+    private boolean rotate() {
+        int previous = activeSegment;
+        boolean retry = writer == null;
+        if (writer != null) {
+            Integer count = live.get(previous);
+            if (count == null || count == 0) {
+                closeQuietly(writer);
+            } else {
+                segmentWriters.put(previous, writer);
+            }
+            writer = null;
+        }
+        try {
+            openSegment(previous + 1);
+        } catch (IOException e) {
+            if (retry) {
+                logger.log(Level.FINE, "Still unable to rotate the BearyChat outbox", e);
+            } else {
+                logger.log(Level.WARNING, "Error rotating BearyChat outbox, notifications are not journaled until it succeeds", e);
+            }
+            return false;
+        }
+        if (retry) {
+            logger.info("BearyChat outbox rotated to segment " + activeSegment + ", journaling resumed");
+        }
+        Integer count = live.get(previous);
+        if (count == null || count == 0) {
+            deleteSegment(previous);
+        }
+        return true;
+    }
+
+    private void openSegment(int segment) throws IOException {
+        File file = segmentFile(segment);
+        writer = openWriter(file);
+        activeSegment = segment;
+        activeSize = file.length();
+        nextSequence = 0;
+        live.put(segment, 0);
+    }
+
+    private void increment(int segment) {
+        Integer count = live.get(segment);
+        live.put(segment, count == null ? 1 : count + 1);
+    }
+
+    private void deleteSegment(int segment) {
+        live.remove(segment);
+        Writer out = segmentWriters.remove(segment);
+        if (out != null) {
+            closeQuietly(out);
+        }
+        File file = segmentFile(segment);
+        if (file.exists() && !file.delete()) {
+            logger.warning("Unable to delete BearyChat outbox segment " + file);
+        }
+    }
+
+    private Collection<QueuedNotification> readPending(int segment) {
+        Map<Long, QueuedNotification> pending = new LinkedHashMap<Long, QueuedNotification>();
+        BufferedReader reader = null;
+        try {
+            reader = openReader(segment);
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.length() == 0) {
+                    continue;
+                }
+                try {
+                    JSONObject record = JSONObject.fromObject(line);
+                    long id = record.getLong("id");
+                    if (OP_ACK.equals(record.optString("op"))) {
+                        pending.remove(id);
+                        continue;
+                    }
+                    QueuedNotification notification = new QueuedNotification(
+                            record.optString("webhook", null), record.optString("channel", null),
+                            BearyChatPayload.fromJSON(record.getJSONObject("data")), record.optLong("createdAt", System.currentTimeMillis()));
+                    notification.setJournalId(id);
+                    notification.setUrgent(record.optBoolean("urgent"));
+                    notification.setPayloadFormat(PayloadFormat.fromName(record.optString("format"), PayloadFormat.FORM));
+                    notification.setIdempotencyKey(record.optLong("key"));
+                    notification.setReadTimeoutMillis(record.optInt("readTimeout"));
+                    pending.put(id, notification);
+                } catch (JSONException e) {
+                    // a torn write from a crash, or a record missing its id or data
+                    logger.warning("Skipping corrupt BearyChat outbox record at line " + lineNumber + " of segment " + segment);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error reading BearyChat outbox segment " + segment, e);
+        } finally {
+            closeQuietly(reader);
+        }
+        return pending.values();
+    }
+
+    private static Writer openWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+    }
+
+    private BufferedReader openReader(int segment) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(segmentFile(segment)), "UTF-8"));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing BearyChat outbox segment", e);
+        }
+    }
+
+    private List<Integer> listSegments() {
+        String[] names = directory.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<Integer> segments = new ArrayList<Integer>();
+        if (names == null) {
+            return segments;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            try {
+                segments.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                logger.warning("Ignoring unexpected file in BearyChat outbox: " + name);
+            }
+        }
+        return segments;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,230 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+
+/**
+ * A BearyChat incoming webhook message: a text, an optional fallback and
+ * channel, and any number of attachments. Serialized by {@link PayloadWriter}.
+ */
+public class BearyChatPayload {
+
+    public static final int DEFAULT_MAX_BYTES = 32 * 1024;
+
+    private String text;
+    private String fallback;
+    private String channel;
+    private final List<Attachment> attachments = new ArrayList<Attachment>(1);
+    // fields the model does not know, such as markdown or notification, as raw JSON values
+    private final Map<String, String> extraFields = new LinkedHashMap<String, String>();
+
+    public BearyChatPayload(String text, String fallback) {
+        this.text = text;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Bridges a message built with net.sf.json into the payload model. Fields the
+     * model does not know are kept as they are and written after the known ones.
+     */
+    public static BearyChatPayload fromJSON(JSONObject data) {
+        BearyChatPayload payload = new BearyChatPayload(optString(data, "text"), optString(data, "fallback"));
+        payload.setChannel(optString(data, "channel"));
+        Object attachments = data.opt("attachments");
+        if (isAttachmentArray(attachments)) {
+            for (Object attachment : (JSONArray) attachments) {
+                JSONObject fields = (JSONObject) attachment;
+                payload.addAttachment(new Attachment(optString(fields, "title"), optString(fields, "text"),
+                        optString(fields, "color"), optString(fields, "url"),
+                        extraFields(fields, "title", "text", "color", "url")));
+            }
+            payload.extraFields.putAll(extraFields(data, "text", "fallback", "channel", "attachments"));
+        } else {
+            payload.extraFields.putAll(extraFields(data, "text", "fallback", "channel"));
+        }
+        return payload;
+    }
+
+    private static boolean isAttachmentArray(Object value) {
+        if (!(value instanceof JSONArray)) {
+            return false;
+        }
+        for (Object attachment : (JSONArray) value) {
+            if (!(attachment instanceof JSONObject) || ((JSONObject) attachment).isNullObject()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, String> extraFields(JSONObject object, String... known) {
+        Map<String, String> extra = new LinkedHashMap<String, String>();
+        Iterator<?> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = String.valueOf(keys.next());
+            boolean isKnown = false;
+            for (String name : known) {
+                isKnown |= name.equals(key);
+            }
+            if (!isKnown) {
+                extra.put(key, JSONUtils.valueToString(object.get(key)));
+            }
+        }
+        return extra;
+    }
+
+    private static String optString(JSONObject object, String key) {
+        Object value = object.opt(key);
+        return value == null || value instanceof JSONObject && ((JSONObject) value).isNullObject() ? null : value.toString();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public String getFallback() {
+        return fallback;
+    }
+
+    public void setFallback(String fallback) {
+        this.fallback = fallback;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public List<Attachment> getAttachments() {
+        return Collections.unmodifiableList(attachments);
+    }
+
+    public BearyChatPayload addAttachment(Attachment attachment) {
+        attachments.add(attachment);
+        return this;
+    }
+
+    /**
+     * @return the fields {@link #fromJSON} did not map, by name, each value as raw JSON
+     */
+    public Map<String, String> getExtraFields() {
+        return Collections.unmodifiableMap(extraFields);
+    }
+
+    /**
+     * @param json the value as raw JSON
+     */
+    void putExtraField(String name, String json) {
+        extraFields.put(name, json);
+    }
+
+    /**
+     * Shortens the message until its JSON takes at most {@code maxBytes} in UTF-8.
+     * Attachment texts go first, the last attachment first, then the text and the
+     * fallback; titles, colors and URLs are left alone. Cut text ends with
+     * {@link PayloadWriter#ELLIPSIS} and stays valid UTF-8.
+     *
+     * @return whether anything was cut
+     */
+    public boolean truncate(int maxBytes) {
+        int excess = PayloadWriter.utf8Length(toString()) - maxBytes;
+        if (excess <= 0) {
+            return false;
+        }
+        for (int i = attachments.size() - 1; i >= 0 && excess > 0; i--) {
+            Attachment attachment = attachments.get(i);
+            String cut = cut(attachment.getText(), excess);
+            if (cut != attachment.getText()) {
+                attachments.set(i, new Attachment(attachment.getTitle(), cut, attachment.getColor(), attachment.getUrl(),
+                        attachment.extraFields));
+                excess = PayloadWriter.utf8Length(toString()) - maxBytes;
+            }
+        }
+        if (excess > 0) {
+            text = cut(text, excess);
+            excess = PayloadWriter.utf8Length(toString()) - maxBytes;
+        }
+        if (excess > 0) {
+            fallback = cut(fallback, excess);
+        }
+        return true;
+    }
+
+    private static String cut(String value, int excess) {
+        if (value == null || value.length() == 0) {
+            return value;
+        }
+        return PayloadWriter.truncateJson(value, Math.max(0, PayloadWriter.jsonLength(value) - excess));
+    }
+
+    /**
+     * @return the payload as a net.sf.json tree, for callers of the old API
+     */
+    public JSONObject toJSON() {
+        return JSONObject.fromObject(toString());
+    }
+
+    @Override
+    public String toString() {
+        return PayloadWriter.toJson(this);
+    }
+
+    public static class Attachment {
+
+        private final String title;
+        private final String text;
+        private final String color;
+        private final String url;
+        private final Map<String, String> extraFields;
+
+        public Attachment(String title, String text, String color, String url) {
+            this(title, text, color, url, Collections.<String, String>emptyMap());
+        }
+
+        Attachment(String title, String text, String color, String url, Map<String, String> extraFields) {
+            this.title = title;
+            this.text = text;
+            this.color = color;
+            this.url = url;
+            this.extraFields = extraFields;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getColor() {
+            return color;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the fields {@link BearyChatPayload#fromJSON} did not map, by name, each value as raw JSON
+         */
+        public Map<String, String> getExtraFields() {
+            return Collections.unmodifiableMap(extraFields);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package jenkins.plugins.bearychat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * The HTTP client a {@link StandardBearyChatService} posts through.
+ *
+ * Implementations never fail the returned future: connection and protocol
+ * errors are reported as a {@link DeliveryResult} like any other response.
+ */
+public interface BearyChatTransport {
+
+    ListenableFuture<DeliveryResult> post(TransportRequest request);
+
+    /**
+     * @return the number of posts that have been sent and not answered yet
+     */
+    int getInFlight();
+
+    void close();
+}
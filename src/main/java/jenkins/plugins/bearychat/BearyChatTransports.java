@@ -0,0 +1,98 @@
+package jenkins.plugins.bearychat;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.ProxyConfiguration;
+import hudson.init.Terminator;
+import org.apache.http.nio.reactor.IOReactorException;
+
+/**
+ * Holds the transport selected in the global configuration.
+ *
+ * The non-blocking transport is built lazily and rebuilt when its settings, the
+ * timeouts or the Jenkins proxy change; posts still in flight on the old one
+ * fail with a retryable error and go through the delivery queue again.
+ */
+public class BearyChatTransports {
+
+    private static final Logger logger = Logger.getLogger(BearyChatTransports.class.getName());
+
+    private static final BearyChatTransports INSTANCE = new BearyChatTransports(BearyChatConnectionPool.get());
+
+    private final BearyChatConnectionPool pool;
+    private final HttpClientTransport httpClientTransport;
+
+    private TransportType type = TransportType.HTTP_CLIENT;
+    private int ioThreads = AsyncHttpTransport.DEFAULT_IO_THREADS;
+    private int maxConnections = AsyncHttpTransport.DEFAULT_MAX_CONNECTIONS;
+    private AsyncHttpTransport asyncTransport;
+    private String asyncFingerprint;
+
+    BearyChatTransports(BearyChatConnectionPool pool) {
+        this.pool = pool;
+        this.httpClientTransport = new HttpClientTransport(pool);
+    }
+
+    public static BearyChatTransports get() {
+        return INSTANCE;
+    }
+
+    public synchronized void configure(TransportType type, int ioThreads, int maxConnections) {
+        this.type = type == null ? TransportType.HTTP_CLIENT : type;
+        this.ioThreads = ioThreads > 0 ? ioThreads : AsyncHttpTransport.DEFAULT_IO_THREADS;
+        this.maxConnections = maxConnections > 0 ? maxConnections : AsyncHttpTransport.DEFAULT_MAX_CONNECTIONS;
+        if (this.type != TransportType.ASYNC) {
+            closeAsync();
+        }
+    }
+
+    /**
+     * @return the selected transport, falling back to the blocking one if the
+     *         non-blocking one cannot be started
+     */
+    public synchronized BearyChatTransport current() {
+        if (type != TransportType.ASYNC) {
+            return httpClientTransport;
+        }
+        ProxyConfiguration proxy = BearyChatConnectionPool.getProxy();
+        TimeoutPolicy timeouts = pool.getTimeouts();
+        String fingerprint = ioThreads + ":" + maxConnections + ":" + timeouts.getConnectMillis() + ":"
+                + timeouts.getReadMillis() + ":" + timeouts.getPoolMillis() + ":"
+                + BearyChatConnectionPool.fingerprint(proxy);
+        if (asyncTransport == null || !fingerprint.equals(asyncFingerprint)) {
+            closeAsync();
+            try {
+                asyncTransport = new AsyncHttpTransport(ioThreads, maxConnections, timeouts, proxy);
+                asyncFingerprint = fingerprint;
+            } catch (IOReactorException e) {
+                logger.log(Level.WARNING, "Unable to start the non-blocking BearyChat transport, using the blocking one", e);
+                return httpClientTransport;
+            }
+        }
+        return asyncTransport;
+    }
+
+    public synchronized TransportType getType() {
+        return type;
+    }
+
+    public synchronized int getInFlight() {
+        return httpClientTransport.getInFlight() + (asyncTransport == null ? 0 : asyncTransport.getInFlight());
+    }
+
+    private void closeAsync() {
+        if (asyncTransport != null) {
+            asyncTransport.close();
+            asyncTransport = null;
+            asyncFingerprint = null;
+        }
+    }
+
+    @Terminator
+    public static void shutdown() {
+        synchronized (INSTANCE) {
+            INSTANCE.closeAsync();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import hudson.EnvVars;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * Keeps one environment snapshot per build and notification phase, so that the
+ * webhook, the channel and the custom message of a notification are expanded
+ * against a single {@link Run#getEnvironment(TaskListener)} call. On agents each
+ * of those calls runs every {@code EnvironmentContributor} and may go over remoting.
+ *
+ * A snapshot taken for the started notification is not reused for the completed
+ * one, whose environment can differ, and the build's entry is dropped once its
+ * completion has been handled. Builds are held weakly.
+ */
+public class BuildEnvironmentCache {
+
+    private static final BuildEnvironmentCache INSTANCE = new BuildEnvironmentCache();
+
+    private final Map<Run, Snapshot> snapshots = new WeakHashMap<Run, Snapshot>();
+
+    public static BuildEnvironmentCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a copy of the build's environment for {@code phase}, computed on the first call of the phase
+     */
+    public EnvVars getEnvironment(Run build, String phase, TaskListener listener) throws IOException, InterruptedException {
+        synchronized (snapshots) {
+            Snapshot snapshot = snapshots.get(build);
+            if (snapshot != null && snapshot.phase.equals(phase)) {
+                return new EnvVars(snapshot.env);
+            }
+        }
+        // not under the lock: this may wait on an agent
+        EnvVars env = build.getEnvironment(listener);
+        synchronized (snapshots) {
+            snapshots.put(build, new Snapshot(phase, env));
+        }
+        return new EnvVars(env);
+    }
+
+    public void invalidate(Run build) {
+        synchronized (snapshots) {
+            snapshots.remove(build);
+        }
+    }
+
+    int size() {
+        synchronized (snapshots) {
+            return snapshots.size();
+        }
+    }
+
+    private static final class Snapshot {
+
+        final String phase;
+        final EnvVars env;
+
+        Snapshot(String phase, EnvVars env) {
+            this.phase = phase;
+            this.env = env;
+        }
+    }
+}
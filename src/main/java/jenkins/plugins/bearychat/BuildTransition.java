@@ -0,0 +1,77 @@
+package jenkins.plugins.bearychat;
+
+import hudson.model.Result;
+
+/**
+ * How a build's result relates to the builds before it, as shown in the completed notification.
+ */
+public enum BuildTransition {
+
+    STARTING,
+    BACK_TO_NORMAL,
+    STILL_FAILING,
+    SUCCESS,
+    FAILURE,
+    ABORTED,
+    NOT_BUILT,
+    UNSTABLE,
+    UNKNOWN;
+
+    /**
+     * @param previousResult the result of the last earlier build that was not aborted
+     * @param succeededBefore whether any earlier build succeeded
+     */
+    public static BuildTransition of(Result result, Result previousResult, boolean succeededBefore) {
+        /* Back to normal should only be shown if the build has actually succeeded at some point.
+         * Also, if a build was previously unstable and has now succeeded the status should be
+         * "Back to normal"
+         */
+        if (result == Result.SUCCESS
+                && (previousResult == Result.FAILURE || previousResult == Result.UNSTABLE)
+                && succeededBefore) {
+            return BACK_TO_NORMAL;
+        }
+        if (result == Result.FAILURE && previousResult == Result.FAILURE) {
+            return STILL_FAILING;
+        }
+        if (result == Result.SUCCESS) {
+            return SUCCESS;
+        }
+        if (result == Result.FAILURE) {
+            return FAILURE;
+        }
+        if (result == Result.ABORTED) {
+            return ABORTED;
+        }
+        if (result == Result.NOT_BUILT) {
+            return NOT_BUILT;
+        }
+        if (result == Result.UNSTABLE) {
+            return UNSTABLE;
+        }
+        return UNKNOWN;
+    }
+
+    public String getStatus() {
+        switch (this) {
+            case STARTING:
+                return Messages.JobStatusStarting();
+            case BACK_TO_NORMAL:
+                return Messages.JobStatusBackToNormal();
+            case STILL_FAILING:
+                return Messages.JobStatusStillFailing();
+            case SUCCESS:
+                return Messages.JobStatusSuccess();
+            case FAILURE:
+                return Messages.JobStatusFailure();
+            case ABORTED:
+                return Messages.JobStatusAborted();
+            case NOT_BUILT:
+                return Messages.JobStatusNotBuilt();
+            case UNSTABLE:
+                return Messages.JobStatusUnstable();
+            default:
+                return Messages.JobStatusUnknown();
+        }
+    }
+}
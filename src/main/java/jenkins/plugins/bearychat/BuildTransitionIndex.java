@@ -0,0 +1,155 @@
+package jenkins.plugins.bearychat;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+
+/**
+ * Remembers, per job, the result of the last build that was not aborted and when
+ * the last successful build ended, so that a completed build's {@link BuildTransition}
+ * is found without walking back through (and loading) earlier build records.
+ *
+ * The index is updated as each build completes. It only trusts its entry for a job
+ * when the entry ends at the build right before the one asked about; after a restart,
+ * a deleted build or builds completing out of order, the history is walked once
+ * the way it used to be and the entry is rebuilt from there. Jobs are held weakly.
+ */
+public class BuildTransitionIndex {
+
+    private static final BuildTransitionIndex INSTANCE = new BuildTransitionIndex();
+
+    private final Map<AbstractProject, Previous> entries = new WeakHashMap<AbstractProject, Previous>();
+
+    public static BuildTransitionIndex get() {
+        return INSTANCE;
+    }
+
+    public BuildTransition getTransition(AbstractBuild build) {
+        if (build.isBuilding()) {
+            return BuildTransition.STARTING;
+        }
+        Previous previous = getPrevious(build);
+        return BuildTransition.of(build.getResult(), previous.getResult(), previous.hasSucceeded());
+    }
+
+    /**
+     * @return what came before {@code build}
+     */
+    public Previous getPrevious(AbstractBuild build) {
+        AbstractProject project = build.getProject();
+        synchronized (entries) {
+            Previous previous = entries.get(project);
+            if (previous != null && previous.number == build.getNumber() - 1) {
+                return previous;
+            }
+        }
+        Previous previous = walk(build);
+        if (previous.number == build.getNumber() - 1) {
+            synchronized (entries) {
+                entries.put(project, previous);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Moves the job's entry on to {@code build}, which has just completed.
+     */
+    public void record(AbstractBuild build) {
+        AbstractProject project = build.getProject();
+        synchronized (entries) {
+            Previous previous = entries.get(project);
+            if (previous == null || previous.number != build.getNumber() - 1) {
+                // a gap in what we have seen, the next build walks the history again
+                entries.remove(project);
+                return;
+            }
+            entries.put(project, previous.next(build));
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Works out what came before {@code build} from the build records, as the plugin always did.
+     * The result can only be kept when no earlier build is still running.
+     */
+    private static Previous walk(AbstractBuild build) {
+        Run previousBuild = build.getPreviousBuild();
+        int number = build.getNumber() - 1;
+        /*
+         * If the last build was aborted, go back to find the last non-aborted build.
+         * This is so that aborted builds do not affect build transitions.
+         * I.e. if build 1 was failure, build 2 was aborted and build 3 was a success the transition
+         * should be failure -> success (and therefore back to normal) not aborted -> success.
+         */
+        Run lastNonAbortedBuild = previousBuild;
+        while (lastNonAbortedBuild != null
+                && (lastNonAbortedBuild.isBuilding() || lastNonAbortedBuild.getResult() == Result.ABORTED)) {
+            if (lastNonAbortedBuild.isBuilding()) {
+                number = -1;
+            }
+            lastNonAbortedBuild = lastNonAbortedBuild.getPreviousBuild();
+        }
+        /* If all previous builds have been aborted, then use
+         * SUCCESS as a default status so an aborted message is sent
+         */
+        Result result = lastNonAbortedBuild == null ? Result.SUCCESS : lastNonAbortedBuild.getResult();
+        Run previousSuccessfulBuild = build.getPreviousSuccessfulBuild();
+        long lastSuccessEnd = previousSuccessfulBuild == null ? -1
+                : previousSuccessfulBuild.getStartTimeInMillis() + previousSuccessfulBuild.getDuration();
+        return new Previous(number, result, lastSuccessEnd);
+    }
+
+    /**
+     * What the builds up to and including {@code number} left behind.
+     */
+    public static final class Previous {
+
+        private final int number;
+        private final Result result;
+        private final long lastSuccessEnd;
+
+        Previous(int number, Result result, long lastSuccessEnd) {
+            this.number = number;
+            this.result = result;
+            this.lastSuccessEnd = lastSuccessEnd;
+        }
+
+        Previous next(Run build) {
+            Result buildResult = build.getResult();
+            if (buildResult == null || buildResult == Result.ABORTED) {
+                return new Previous(build.getNumber(), result, lastSuccessEnd);
+            }
+            long successEnd = buildResult == Result.SUCCESS
+                    ? build.getStartTimeInMillis() + build.getDuration() : lastSuccessEnd;
+            return new Previous(build.getNumber(), buildResult, successEnd);
+        }
+
+        /**
+         * @return the result of the last build that was not aborted, {@link Result#SUCCESS} if there is none
+         */
+        public Result getResult() {
+            return result;
+        }
+
+        public boolean hasSucceeded() {
+            return lastSuccessEnd >= 0;
+        }
+
+        /**
+         * @return when the last successful build ended, -1 if none has
+         */
+        public long getLastSuccessEnd() {
+            return lastSuccessEnd;
+        }
+    }
+}
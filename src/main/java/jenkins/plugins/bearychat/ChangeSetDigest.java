@@ -0,0 +1,142 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.scm.ChangeLogSet;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Everything the notifications show about a build's change set, read in one pass
+ * over its entries: the entry count, the first {@link #MAX_COMMIT_MESSAGES} commit
+ * lines, the distinct authors and the number of distinct affected files.
+ *
+ * Only the commit lines, up to {@link #MAX_AUTHORS} author names and two
+ * {@link DistinctCounter}s are kept, so a digest takes the same memory whether the
+ * change set has ten entries or a hundred thousand. Digests are kept per build from
+ * the started notification until the completed one has been sent.
+ */
+public final class ChangeSetDigest {
+
+    static final int MAX_COMMIT_MESSAGES = 5;
+    static final int MAX_AUTHORS = 50;
+
+    private static final ChangeSetDigest EMPTY = new ChangeSetDigest();
+
+    private static final Map<Run, ChangeSetDigest> digests = new WeakHashMap<Run, ChangeSetDigest>();
+
+    private int entries;
+    private final DistinctCounter files = new DistinctCounter();
+    private final DistinctCounter authorCount = new DistinctCounter();
+    private final List<String> commits = new ArrayList<String>(MAX_COMMIT_MESSAGES);
+    private final Set<String> authors = new LinkedHashSet<String>();
+
+    private ChangeSetDigest() {
+    }
+
+    public static ChangeSetDigest of(AbstractBuild build) {
+        synchronized (digests) {
+            ChangeSetDigest digest = digests.get(build);
+            if (digest != null) {
+                return digest;
+            }
+        }
+        ChangeSetDigest digest = summarize(build.getParent() == null ? null : build.getParent().getFullName(),
+                build.getChangeSet());
+        // before checkout there is nothing to keep, the change set is still to come
+        if (build.hasChangeSetComputed()) {
+            synchronized (digests) {
+                digests.put(build, digest);
+            }
+        }
+        return digest;
+    }
+
+    static ChangeSetDigest summarize(String job, ChangeLogSet<?> changeSet) {
+        if (changeSet == null || changeSet.isEmptySet()) {
+            return EMPTY;
+        }
+        ChangeSetDigest digest = new ChangeSetDigest();
+        for (ChangeLogSet.Entry entry : changeSet) {
+            digest.add(job, entry);
+        }
+        return digest;
+    }
+
+    public static void invalidate(Run build) {
+        synchronized (digests) {
+            digests.remove(build);
+        }
+    }
+
+    static int size() {
+        synchronized (digests) {
+            return digests.size();
+        }
+    }
+
+    private void add(String job, ChangeLogSet.Entry entry) {
+        entries++;
+        // paths rather than AffectedFiles: every SCM implements them
+        for (String path : entry.getAffectedPaths()) {
+            files.add(path);
+        }
+        String author = AuthorNameCache.get().getDisplayName(job, entry);
+        if (commits.size() < MAX_COMMIT_MESSAGES) {
+            commits.add("- " + entry.getMsg() + " [" + author + "]\n");
+        }
+        authorCount.add(author);
+        if (authors.size() < MAX_AUTHORS) {
+            authors.add(author);
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries == 0;
+    }
+
+    public int getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * @return how many distinct paths the changes touched, estimated past {@link DistinctCounter#DEFAULT_EXACT_LIMIT}
+     */
+    public long getFileCount() {
+        return files.count();
+    }
+
+    public List<String> getCommits() {
+        return Collections.unmodifiableList(commits);
+    }
+
+    /**
+     * @return the distinct authors, first come first, and how many more there are past {@link #MAX_AUTHORS}
+     */
+    public String getAuthors() {
+        String joined = StringUtils.join(authors, ", ");
+        long more = authorCount.count() - authors.size();
+        return more > 0 ? joined + " and " + more + " more" : joined;
+    }
+
+    /**
+     * @return the commit lines as shown in the completed notification
+     */
+    public String getCommitMessages() {
+        StringBuilder text = new StringBuilder();
+        for (String commit : commits) {
+            text.append(commit);
+        }
+        if (entries > MAX_COMMIT_MESSAGES) {
+            text.append(entries - MAX_COMMIT_MESSAGES).append(" more...");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package jenkins.plugins.bearychat;
+
+/**
+ * Circuit breaker for a single webhook.
+ *
+ * The outcome of the most recent posts is kept in a fixed-size sliding window.
+ * Once enough calls have been seen and the failure rate reaches the threshold the
+ * circuit opens and posts are refused until the open period has elapsed. A single
+ * probe is then let through: success closes the circuit, failure opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String webhook;
+    private final CircuitBreakerRegistry registry;
+    private final boolean[] window;
+
+    private State state = State.CLOSED;
+    private int calls;
+    private int failures;
+    private int next;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    CircuitBreaker(String webhook, CircuitBreakerRegistry registry) {
+        this.webhook = webhook;
+        this.registry = registry;
+        this.window = new boolean[Math.max(1, registry.getWindowSize())];
+    }
+
+    /**
+     * @return true if a post may be attempted now
+     */
+    public synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < registry.getOpenDurationMillis()) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a post that was allowed through.
+     *
+     * @return the state after recording
+     */
+    public synchronized State record(boolean success, long now) {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            if (success) {
+                reset();
+                state = State.CLOSED;
+            } else {
+                open(now);
+            }
+            return state;
+        }
+        if (state == State.OPEN) {
+            // a post that started before the circuit opened
+            return state;
+        }
+        if (calls == window.length) {
+            if (!window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = success;
+        if (!success) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+        if (calls >= registry.getMinimumCalls() && getFailureRate() >= registry.getFailureRateThreshold()) {
+            open(now);
+        }
+        return state;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+    }
+
+    private void reset() {
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getDisplayName() {
+        return Helper.maskWebhook(webhook);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the failure rate over the sliding window, in percent
+     */
+    public synchronized int getFailureRate() {
+        return calls == 0 ? 0 : failures * 100 / calls;
+    }
+
+    public synchronized long getOpenedAt() {
+        return openedAt;
+    }
+
+    public int getParked() {
+        return registry.getParked(webhook);
+    }
+}
@@ -0,0 +1,104 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Circuit breakers keyed by resolved webhook URL, plus the parking area where
+ * notifications wait while their webhook's circuit is open.
+ */
+public class CircuitBreakerRegistry {
+
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 5;
+    public static final int DEFAULT_OPEN_SECONDS = 60;
+
+    static final int MAX_PARKED_PER_WEBHOOK = 1000;
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private final Map<String, Deque<QueuedNotification>> parked = new HashMap<String, Deque<QueuedNotification>>();
+
+    private volatile int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private volatile long openDurationMillis = DEFAULT_OPEN_SECONDS * 1000L;
+
+    /**
+     * Applies new thresholds. The window size only affects breakers created afterwards.
+     */
+    public void configure(int failureRateThreshold, int windowSize, int minimumCalls, int openSeconds) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.openDurationMillis = openSeconds * 1000L;
+    }
+
+    public CircuitBreaker get(String webhook) {
+        String key = webhook == null ? "" : webhook;
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(key, this);
+            breaker = breakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    public Collection<CircuitBreaker> getBreakers() {
+        return new ArrayList<CircuitBreaker>(breakers.values());
+    }
+
+    /**
+     * Parks a notification until the circuit of its webhook closes again.
+     *
+     * @return the oldest parked notification if the parking area overflowed, or null
+     */
+    public synchronized QueuedNotification park(QueuedNotification notification) {
+        String key = notification.getWebhook() == null ? "" : notification.getWebhook();
+        Deque<QueuedNotification> queue = parked.get(key);
+        if (queue == null) {
+            queue = new ArrayDeque<QueuedNotification>();
+            parked.put(key, queue);
+        }
+        queue.addLast(notification);
+        return queue.size() > MAX_PARKED_PER_WEBHOOK ? queue.pollFirst() : null;
+    }
+
+    /**
+     * @return the oldest notification parked for the webhook, or null
+     */
+    public synchronized QueuedNotification unpark(String webhook) {
+        Deque<QueuedNotification> queue = parked.get(webhook == null ? "" : webhook);
+        return queue == null ? null : queue.pollFirst();
+    }
+
+    public synchronized int getParked(String webhook) {
+        Deque<QueuedNotification> queue = parked.get(webhook == null ? "" : webhook);
+        return queue == null ? 0 : queue.size();
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+}
@@ -0,0 +1,102 @@
+package jenkins.plugins.bearychat;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Keeps DNS entries and pooled connections warm for every configured webhook,
+ * so that the first notification after a restart or a quiet period is as fast
+ * as any other. Runs once at startup and then periodically, a little more
+ * often than idle connections are evicted.
+ */
+@Extension
+public class ConnectionWarmer extends AsyncPeriodicWork {
+
+    private static final Logger logger = Logger.getLogger(ConnectionWarmer.class.getName());
+
+    static final long RECURRENCE = TimeUnit.SECONDS.toMillis(45);
+
+    public ConnectionWarmer() {
+        super("BearyChat connection warm-up");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        warmUp(collectWebhooks());
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void warmUpOnStartup() {
+        final Set<String> webhooks = collectWebhooks();
+        if (webhooks.isEmpty()) {
+            return;
+        }
+        Thread warmUp = new Thread("BearyChat connection warm-up") {
+            @Override
+            public void run() {
+                warmUp(webhooks);
+            }
+        };
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    static void warmUp(Set<String> webhooks) {
+        // the asynchronous transport keeps its own connections, the pool would only hold idle ones
+        if (BearyChatTransports.get().getType() == TransportType.ASYNC) {
+            return;
+        }
+        BearyChatConnectionPool pool = BearyChatConnectionPool.get();
+        int warmed = 0;
+        for (String webhook : webhooks) {
+            if (pool.warmUp(webhook)) {
+                warmed++;
+            }
+        }
+        logger.fine("Warmed up BearyChat connections to " + warmed + " of " + webhooks.size() + " webhook(s)");
+    }
+
+    /**
+     * @return the distinct webhooks of the global configuration and of every job,
+     * leaving out those that depend on build variables
+     */
+    static Set<String> collectWebhooks() {
+        Set<String> webhooks = new LinkedHashSet<String>();
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return webhooks;
+        }
+        BearyChatNotifier.DescriptorImpl descriptor = jenkins.getDescriptorByType(BearyChatNotifier.DescriptorImpl.class);
+        String globalWebhook = descriptor == null ? null : descriptor.getWebhook();
+        add(webhooks, globalWebhook);
+        for (AbstractProject<?, ?> project : jenkins.getAllItems(AbstractProject.class)) {
+            BearyChatNotifier notifier = project.getPublishersList().get(BearyChatNotifier.class);
+            if (notifier != null) {
+                add(webhooks, StringUtils.isEmpty(notifier.getWebhook()) ? globalWebhook : notifier.getWebhook());
+            }
+        }
+        return webhooks;
+    }
+
+    private static void add(Set<String> webhooks, String webhook) {
+        if (StringUtils.isNotBlank(webhook) && !webhook.contains("$")) {
+            webhooks.add(webhook.trim());
+        }
+    }
+}
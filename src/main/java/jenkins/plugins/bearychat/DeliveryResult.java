@@ -0,0 +1,118 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+
+/**
+ * Outcome of a single attempt to post a notification to a webhook.
+ */
+public class DeliveryResult {
+
+    public enum Outcome {
+        SUCCESS,
+        /** Transient failure such as a timeout, a 5xx or throttling, worth another attempt. */
+        RETRYABLE,
+        /** The request itself is wrong (bad URL, revoked webhook...), retrying would not help. */
+        FATAL
+    }
+
+    private final Outcome outcome;
+    private final int statusCode;
+    private final long retryAfterMillis;
+    private final String message;
+
+    private DeliveryResult(Outcome outcome, int statusCode, long retryAfterMillis, String message) {
+        this.outcome = outcome;
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+        this.message = message;
+    }
+
+    /**
+     * Classifies an HTTP response.
+     *
+     * @param retryAfter value of the {@code Retry-After} header, may be null
+     */
+    public static DeliveryResult fromStatus(int statusCode, String retryAfter, String message) {
+        if (statusCode >= 200 && statusCode < 300) {
+            return new DeliveryResult(Outcome.SUCCESS, statusCode, -1, message);
+        }
+        Outcome outcome;
+        if (statusCode == 408 || statusCode == 429 || (statusCode >= 500 && statusCode != 501)) {
+            outcome = Outcome.RETRYABLE;
+        } else {
+            outcome = Outcome.FATAL;
+        }
+        return new DeliveryResult(outcome, statusCode, parseRetryAfter(retryAfter, System.currentTimeMillis()), message);
+    }
+
+    /**
+     * Classifies an exception thrown while posting; I/O problems are transient,
+     * anything else means the request could not even be built.
+     */
+    public static DeliveryResult fromException(Exception e) {
+        Outcome outcome = e instanceof IOException ? Outcome.RETRYABLE : Outcome.FATAL;
+        return new DeliveryResult(outcome, 0, -1, e.toString());
+    }
+
+    /**
+     * Parses a {@code Retry-After} header given either in seconds or as an HTTP date.
+     *
+     * @return the delay in milliseconds, or -1 if absent or unparseable
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null || value.trim().length() == 0) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // not seconds, try an HTTP date
+        }
+        try {
+            Date date = DateUtil.parseDate(value);
+            return Math.max(0, date.getTime() - now);
+        } catch (DateParseException e) {
+            return -1;
+        }
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public boolean isSuccess() {
+        return outcome == Outcome.SUCCESS;
+    }
+
+    public boolean isRetryable() {
+        return outcome == Outcome.RETRYABLE;
+    }
+
+    /**
+     * @return the HTTP status code, or 0 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the delay requested by the server through {@code Retry-After}, or -1
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return outcome + (statusCode > 0 ? " (HTTP " + statusCode + ")" : "") + (message != null ? ": " + message : "");
+    }
+}
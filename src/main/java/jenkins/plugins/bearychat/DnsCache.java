@@ -0,0 +1,87 @@
+package jenkins.plugins.bearychat;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small cache of resolved webhook hosts, so that posting does not wait on a DNS
+ * lookup. Entries expire after a fixed TTL and the cache holds a bounded number
+ * of hosts, evicting the least recently used one.
+ */
+public class DnsCache {
+
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+    public static final int DEFAULT_MAX_HOSTS = 256;
+
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Resolved> entries;
+    private long hits;
+    private long misses;
+
+    private static class Resolved {
+        final InetAddress[] addresses;
+        final long expiresAt;
+
+        Resolved(InetAddress[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public DnsCache(long ttlMillis, final int maxHosts) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Resolved>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Resolved> eldest) {
+                return size() > maxHosts;
+            }
+        };
+    }
+
+    /**
+     * @return the addresses of the host, looked up again once the cached ones have expired
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Resolved entry = entries.get(host);
+            if (entry != null && entry.expiresAt > now) {
+                hits++;
+                return entry.addresses;
+            }
+            misses++;
+        }
+        // look up outside the lock, a slow resolver must not block other hosts
+        InetAddress[] addresses = lookup(host);
+        synchronized (this) {
+            entries.put(host, new Resolved(addresses, now + ttlMillis));
+        }
+        return addresses;
+    }
+
+    /**
+     * Drops a host, for instance after its cached address refused a connection.
+     */
+    public synchronized void evict(String host) {
+        entries.remove(host);
+    }
+
+    protected InetAddress[] lookup(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -7,12 +7,7 @@ import java.util.logging.Logger;
 import hudson.EnvVars;
 import hudson.Util;
 import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
-import hudson.model.Hudson;
 import hudson.model.Result;
-import hudson.model.Run;
-import hudson.model.Cause;
-import hudson.scm.ChangeLogSet;
 import hudson.util.LogTaskListener;
 import org.apache.commons.lang.StringUtils;
 import jenkins.plugins.bearychat.Messages;
@@ -24,150 +19,48 @@ public class Helper {
 
     private static final Logger logger = Logger.getLogger(ActiveNotifier.class.getName());
 
-    private static final String STATUS_STARTING = Messages.JobStatusStarting();
-    private static final String STATUS_BACK_TO_NORMAL = Messages.JobStatusBackToNormal();
-    private static final String STATUS_STILL_FAILING = Messages.JobStatusStillFailing();
-    private static final String STATUS_SUCCESS = Messages.JobStatusSuccess();
-    private static final String STATUS_FAILURE = Messages.JobStatusFailure();
-    private static final String STATUS_ABORTED = Messages.JobStatusAborted();
-    private static final String STATUS_NOT_BUILT = Messages.JobStatusNotBuilt();
-    private static final String STATUS_UNSTABLE = Messages.JobStatusUnstable();
-    private static final String STATUS_UNKNOWN = Messages.JobStatusUnknown();
-
-    private static final int MAX_COMMIT_MESSAGES = 5;
-
     public static final String COLOR_GREEN = "#008800";
     public static final String COLOR_RED = "#FF0000";
     public static final String COLOR_YELLOW = "#FFFF00";
     public static final String COLOR_BLUE = "#0080FF";
     public static final String COLOR_GREY = "#808080";
 
-    public static String escape(String string) {
-        string = string.replace("&", "&amp;");
-        string = string.replace("<", "&lt;");
-        string = string.replace(">", "&gt;");
+    /**
+     * Hides the secret part of a webhook URL so that it can be shown in the UI and logs.
+     */
+    public static String maskWebhook(String webhook) {
+        if (StringUtils.isEmpty(webhook)) {
+            return "";
+        }
+        int pathStart = webhook.indexOf('/', webhook.indexOf("://") + 3);
+        if (pathStart < 0 || webhook.indexOf("://") < 0) {
+            return "****";
+        }
+        String path = webhook.substring(pathStart);
+        String tail = path.length() > 4 ? path.substring(path.length() - 4) : "";
+        return webhook.substring(0, pathStart) + "/****" + tail;
+    }
 
-        return string;
+    public static String escape(String string) {
+        return PayloadWriter.escapeHtml(string);
     }
 
 
     public static String getStatusByBuild(AbstractBuild build) {
-        if (build.isBuilding()) {
-            return STATUS_STARTING;
-        }
-        Result result = build.getResult();
-        Result previousResult;
-        Run previousBuild = null;
+        return getTransition(build).getStatus();
+    }
 
+    public static BuildTransition getTransition(AbstractBuild build) {
         try {
-            previousBuild = build.getProject().getLastBuild().getPreviousBuild();
-        } catch (NullPointerException e) {
-            logger.info("get previous build failure");
-            return STATUS_UNKNOWN;
+            return BuildTransitionIndex.get().getTransition(build);
         } catch (Exception e) {
             logger.info("get previous build failure");
-            return STATUS_UNKNOWN;
-        }
-
-        Run previousSuccessfulBuild = build.getPreviousSuccessfulBuild();
-        boolean buildHasSucceededBefore = previousSuccessfulBuild != null;
-
-        /*
-         * If the last build was aborted, go back to find the last non-aborted build.
-         * This is so that aborted builds do not affect build transitions.
-         * I.e. if build 1 was failure, build 2 was aborted and build 3 was a success the transition
-         * should be failure -> success (and therefore back to normal) not aborted -> success.
-         */
-        Run lastNonAbortedBuild = previousBuild;
-        while (lastNonAbortedBuild != null && lastNonAbortedBuild.getResult() == Result.ABORTED) {
-            lastNonAbortedBuild = lastNonAbortedBuild.getPreviousBuild();
-        }
-
-        /* If all previous builds have been aborted, then use
-         * SUCCESS as a default status so an aborted message is sent
-         */
-        if (lastNonAbortedBuild == null) {
-            previousResult = Result.SUCCESS;
-        } else {
-            previousResult = lastNonAbortedBuild.getResult();
-        }
-
-        /* Back to normal should only be shown if the build has actually succeeded at some point.
-         * Also, if a build was previously unstable and has now succeeded the status should be
-         * "Back to normal"
-         */
-        if (result == Result.SUCCESS
-                && (previousResult == Result.FAILURE || previousResult == Result.UNSTABLE)
-                && buildHasSucceededBefore) {
-            return STATUS_BACK_TO_NORMAL;
-        }
-        if (result == Result.FAILURE && previousResult == Result.FAILURE) {
-            return STATUS_STILL_FAILING;
-        }
-        if (result == Result.SUCCESS) {
-            return STATUS_SUCCESS;
-        }
-        if (result == Result.FAILURE) {
-            return STATUS_FAILURE;
-        }
-        if (result == Result.ABORTED) {
-            return STATUS_ABORTED;
-        }
-        if (result == Result.NOT_BUILT) {
-            return STATUS_NOT_BUILT;
-        }
-        if (result == Result.UNSTABLE) {
-            return STATUS_UNSTABLE;
+            return BuildTransition.UNKNOWN;
         }
-        return STATUS_UNKNOWN;
     }
 
     public static String getCommitMessages(AbstractBuild build) {
-        ChangeLogSet changeSet = build.getChangeSet();
-        List<ChangeLogSet.Entry> entries = new LinkedList<ChangeLogSet.Entry>();
-        for (Object o : changeSet.getItems()) {
-            ChangeLogSet.Entry entry = (ChangeLogSet.Entry) o;
-            logger.info("Entry " + o);
-            entries.add(entry);
-        }
-
-        if (entries.isEmpty()) {
-            logger.info("Empty change...");
-            Cause.UpstreamCause c = (Cause.UpstreamCause)build.getCause(Cause.UpstreamCause.class);
-            if (c == null) {
-                return "No Commit Changes.";
-            }
-            String upProjectName = c.getUpstreamProject();
-            int buildNumber = c.getUpstreamBuild();
-            AbstractProject project = null;
-            try {
-                project = Hudson.getInstance().getItemByFullName(upProjectName, AbstractProject.class);
-            } catch (NullPointerException e) {
-                logger.info("get project failure");
-            }
-
-            if (project == null) {
-                return "No Commit Changes.";
-            }
-            AbstractBuild upBuild = (AbstractBuild)project.getBuildByNumber(buildNumber);
-            return getCommitMessages(upBuild);
-        }
-
-        StringBuffer commits = new StringBuffer();
-        for (int i=0; i < MAX_COMMIT_MESSAGES && i<entries.size(); i++) {
-            ChangeLogSet.Entry entry = entries.get(i);
-            StringBuffer commit = new StringBuffer();
-            commit.append(entry.getMsg());
-            commit.append(" [").append(entry.getAuthor().getDisplayName()).append("]");
-            commits.append("- ").append(commit.toString()).append("\n");
-        }
-        if(entries.size() > MAX_COMMIT_MESSAGES) {
-            int left = entries.size() - 5;
-            commits.append(left).append(" more...");
-        }
-
-        return commits.toString();
-
+        return UpstreamCommitCache.get().getCommitMessages(build);
     }
 
     public static String getChanges(BearyChatNotifier notifier, AbstractBuild r) {
@@ -176,59 +69,51 @@ public class Helper {
             logger.info("No change set computed...");
             return null;
         }
-        ChangeLogSet changeSet = r.getChangeSet();
-        List<ChangeLogSet.Entry> entries = new LinkedList<ChangeLogSet.Entry>();
-        Set<ChangeLogSet.AffectedFile> files = new HashSet<ChangeLogSet.AffectedFile>();
-        for (Object o : changeSet.getItems()) {
-            ChangeLogSet.Entry entry = (ChangeLogSet.Entry) o;
-            logger.info("Entry " + o);
-            entries.add(entry);
-            files.addAll(entry.getAffectedFiles());
-        }
-        if (entries.isEmpty()) {
+        ChangeSetDigest digest = ChangeSetDigest.of(r);
+        if (digest.isEmpty()) {
             logger.info("Empty change...");
             return null;
         }
-        Set<String> authors = new HashSet<String>();
-        for (ChangeLogSet.Entry entry : entries) {
-            authors.add(entry.getAuthor().getDisplayName());
-        }
 
         result.append("Started by changes from ");
-        result.append(StringUtils.join(authors, ", "));
+        result.append(digest.getAuthors());
         result.append(" (");
-        result.append(files.size());
+        result.append(digest.getFileCount());
         result.append(" file(s) changed)");
 
         return result.toString();
     }
 
     public static String getCustomStartMessage(BearyChatNotifier notifier, AbstractBuild build) {
-        String customStartMessage = notifier.getCustomStartMessage();
-        EnvVars envVars = null;
-        try {
-            envVars = build.getEnvironment(new LogTaskListener(logger, INFO));
-            customStartMessage = envVars.expand(customStartMessage);
-        } catch (IOException e) {
-            logger.log(SEVERE, e.getMessage(), e);
-        } catch (InterruptedException e) {
-            logger.log(SEVERE, e.getMessage(), e);
-        }
-        return customStartMessage;
+        return new MessageBuilder(notifier, build).getCustomStartMessage();
     }
 
     public static String getCustomEndMessage(BearyChatNotifier notifier, AbstractBuild build) {
-        String customEndMessage = notifier.getCustomEndMessage();
-        EnvVars envVars = null;
-        try {
-            envVars = build.getEnvironment(new LogTaskListener(logger, INFO));
-            customEndMessage = envVars.expand(customEndMessage);
-        } catch (IOException e) {
-            logger.log(SEVERE, e.getMessage(), e);
-        } catch (InterruptedException e) {
-            logger.log(SEVERE, e.getMessage(), e);
-        }
-        return customEndMessage;
+        return new MessageBuilder(notifier, build).getCustomEndMessage();
+    }
+
+    /**
+     * The build's environment variables as template fields, read the first time a template asks for one.
+     */
+    static MessageTemplate.Fields environment(final AbstractBuild build, final String phase) {
+        return new MessageTemplate.Fields() {
+            private EnvVars envVars;
+
+            public String get(String name) {
+                if (envVars == null) {
+                    try {
+                        envVars = BuildEnvironmentCache.get().getEnvironment(build, phase, new LogTaskListener(logger, INFO));
+                    } catch (IOException e) {
+                        logger.log(SEVERE, e.getMessage(), e);
+                        envVars = new EnvVars();
+                    } catch (InterruptedException e) {
+                        logger.log(SEVERE, e.getMessage(), e);
+                        envVars = new EnvVars();
+                    }
+                }
+                return envVars.get(name);
+            }
+        };
     }
 
     public static String getBuildColor(AbstractBuild build) {
@@ -249,28 +134,23 @@ public class Helper {
     public static String createBackToNormalDurationString(AbstractBuild build) {
         long backToNormalDuration = 0;
         try {
-            Run previousSuccessfulBuild = build.getPreviousSuccessfulBuild();
-            long previousSuccessStartTime = previousSuccessfulBuild.getStartTimeInMillis();
-            long previousSuccessDuration = previousSuccessfulBuild.getDuration();
-            long previousSuccessEndTime = previousSuccessStartTime + previousSuccessDuration;
-            long buildStartTime = build.getStartTimeInMillis();
-            long buildDuration = build.getDuration();
-            long buildEndTime = buildStartTime + buildDuration;
-            backToNormalDuration = buildEndTime - previousSuccessEndTime;
-            return Util.getTimeSpanString(backToNormalDuration);
-        } catch (NullPointerException e) {
+            long previousSuccessEndTime = BuildTransitionIndex.get().getPrevious(build).getLastSuccessEnd();
+            if (previousSuccessEndTime >= 0) {
+                long buildEndTime = build.getStartTimeInMillis() + build.getDuration();
+                backToNormalDuration = buildEndTime - previousSuccessEndTime;
+            }
             return Util.getTimeSpanString(backToNormalDuration);
         } catch (Exception e) {
             return Util.getTimeSpanString(backToNormalDuration);
         }
-
     }
 
     public static String getBuildStatusMessage(BearyChatNotifier notifier, AbstractBuild build) {
         StringBuffer result = new StringBuffer();
-        result.append(Helper.escape(Helper.getStatusByBuild(build)));
+        BuildTransition transition = Helper.getTransition(build);
+        result.append(Helper.escape(transition.getStatus()));
         result.append(" " +  Messages.JobDurationAfter() + " ");
-        if (result.toString().contains(STATUS_BACK_TO_NORMAL)) {
+        if (transition == BuildTransition.BACK_TO_NORMAL) {
             result.append(Helper.createBackToNormalDurationString(build));
         } else {
             result.append(build.getDurationString());
@@ -0,0 +1,77 @@
+package jenkins.plugins.bearychat;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+
+/**
+ * Posts through the pooled commons-httpclient of {@link BearyChatConnectionPool}.
+ *
+ * The post runs on the calling thread, so the returned future is always done.
+ */
+public class HttpClientTransport implements BearyChatTransport {
+
+    private static final Logger logger = Logger.getLogger(HttpClientTransport.class.getName());
+
+    private final BearyChatConnectionPool pool;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public HttpClientTransport(BearyChatConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public ListenableFuture<DeliveryResult> post(TransportRequest request) {
+        PostMethod post = null;
+        inFlight.incrementAndGet();
+        try {
+            HttpClient client = pool.getHttpClient();
+            HostConfiguration hostConfiguration = pool.getHostConfiguration(request.getUrl());
+            if (hostConfiguration != null) {
+                // relative to the pooled host configuration, which resolves through the DNS cache
+                String file = new URL(request.getUrl()).getFile();
+                post = new PostMethod(file.startsWith("/") ? file : "/" + file);
+            } else {
+                post = new PostMethod(request.getUrl());
+            }
+            if (request.getReadTimeoutMillis() > 0) {
+                post.getParams().setSoTimeout(request.getReadTimeoutMillis());
+            }
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                post.addRequestHeader(header.getKey(), header.getValue());
+            }
+            post.setRequestEntity(new ByteArrayRequestEntity(request.getBody(), request.getContentType()));
+
+            int responseCode = hostConfiguration != null ? client.executeMethod(hostConfiguration, post)
+                    : client.executeMethod(post);
+            Header retryAfter = post.getResponseHeader("Retry-After");
+            return Futures.immediateFuture(DeliveryResult.fromStatus(responseCode,
+                    retryAfter == null ? null : retryAfter.getValue(), post.getResponseBodyAsString()));
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error posting to BearyChat", e);
+            return Futures.immediateFuture(DeliveryResult.fromException(e));
+        } finally {
+            inFlight.decrementAndGet();
+            if (post != null) {
+                post.releaseConnection();
+            }
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void close() {
+        // the pool is shared and shut down on its own
+    }
+}
@@ -0,0 +1,234 @@
+package jenkins.plugins.bearychat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+/**
+ * Remembers which notifications have already been posted so that a replayed
+ * build event or a retried pipeline step does not post the same message twice.
+ *
+ * Notifications are identified by a 64-bit hash of their idempotency key. The
+ * cache holds at most {@link #DEFAULT_CAPACITY} keys for {@link #DEFAULT_TTL_HOURS}
+ * hours, evicting the oldest first, and is written to
+ * {@code JENKINS_HOME/bearychat-idempotency.bin} as plain pairs of longs.
+ */
+public class IdempotencyCache {
+
+    private static final Logger logger = Logger.getLogger(IdempotencyCache.class.getName());
+
+    public static final String FILE_NAME = "bearychat-idempotency.bin";
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int DEFAULT_TTL_HOURS = 24;
+
+    private static final int MAGIC = 0x42434931;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final IdempotencyCache INSTANCE = new IdempotencyCache(null, DEFAULT_CAPACITY,
+            TimeUnit.HOURS.toMillis(DEFAULT_TTL_HOURS));
+
+    // key hash -> expiry, in insertion order so the eldest entry is the next to expire
+    private final LinkedHashMap<Long, Long> entries;
+    private final long ttlMillis;
+    private File file;
+    private boolean dirty;
+
+    IdempotencyCache(File file, final int capacity, long ttlMillis) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Long, Long>(Math.min(capacity, 1024), 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static IdempotencyCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Builds the key of a notification from the parts that identify it.
+     */
+    public static long key(String... parts) {
+        long hash = FNV_OFFSET;
+        for (String part : parts) {
+            if (part == null) {
+                hash = (hash ^ 0xFFFE) * FNV_PRIME;
+            } else {
+                for (int i = 0; i < part.length(); i++) {
+                    hash = (hash ^ part.charAt(i)) * FNV_PRIME;
+                }
+            }
+            // noncharacters, so that the parts cannot run into each other
+            hash = (hash ^ 0xFFFF) * FNV_PRIME;
+        }
+        // 0 means "no key"
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Claims a key for a notification that is about to be sent.
+     *
+     * @return false if the key was claimed before and has not expired, so the notification is a duplicate
+     */
+    public synchronized boolean claim(long key, long now) {
+        expire(now);
+        Long expiry = entries.get(key);
+        if (expiry != null && expiry > now) {
+            return false;
+        }
+        entries.remove(key);
+        entries.put(key, now + ttlMillis);
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Forgets a key whose notification could not be delivered, so a later attempt may send it again.
+     */
+    public synchronized void release(long key) {
+        if (entries.remove(key) != null) {
+            dirty = true;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void expire(long now) {
+        Iterator<Long> expiries = entries.values().iterator();
+        while (expiries.hasNext()) {
+            if (expiries.next() > now) {
+                break;
+            }
+            expiries.remove();
+            dirty = true;
+        }
+    }
+
+    synchronized void load(File file) {
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                logger.warning("Ignoring unrecognized BearyChat idempotency cache " + file);
+                return;
+            }
+            int count = in.readInt();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                long expiry = in.readLong();
+                if (expiry > now) {
+                    entries.put(key, expiry);
+                }
+            }
+        } catch (EOFException e) {
+            logger.warning("BearyChat idempotency cache " + file + " is truncated, keeping what could be read");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error reading BearyChat idempotency cache " + file, e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the cache if it changed since the last save, replacing the file atomically.
+     */
+    synchronized void save() {
+        if (!dirty || file == null) {
+            return;
+        }
+        expire(System.currentTimeMillis());
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, Long> entry : entries.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Unable to replace " + file);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing BearyChat idempotency cache " + file, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing BearyChat idempotency cache", e);
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void start() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            INSTANCE.load(new File(jenkins.getRootDir(), FILE_NAME));
+        }
+    }
+
+    @Terminator
+    public static void stop() {
+        INSTANCE.save();
+    }
+
+    /**
+     * Saves recently claimed keys so they survive a crash, not just a clean shutdown.
+     */
+    @Extension
+    public static class Saver extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(10);
+        }
+
+        @Override
+        protected void doRun() {
+            INSTANCE.save();
+        }
+    }
+}
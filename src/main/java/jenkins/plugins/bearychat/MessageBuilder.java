@@ -4,7 +4,6 @@ import java.util.*;
 
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
-import hudson.scm.ChangeLogSet;
 import org.apache.commons.lang.StringUtils;
 import jenkins.plugins.bearychat.Messages;
 
@@ -12,17 +11,167 @@ public class MessageBuilder {
 
     private AbstractBuild build;
     private BearyChatNotifier notifier;
+
+    // each part is worked out the first time a message needs it: a started
+    // notification never looks at the commits or the build status
     private Map<String, String> project;
-    private Map<String, String> job;
     private Map<String, String> files;
+    private String jobURL;
+    private String commits;
+    private String customStartMessage;
+    private String customEndMessage;
+    private String statusMessage;
+    private MessageTemplate.Fields startedFields;
+    private MessageTemplate.Fields completedFields;
+
+    // the default titles, compiled once per locale
+    private static volatile DefaultLayouts defaultLayouts;
 
     public MessageBuilder(BearyChatNotifier notifier, AbstractBuild build) {
         this.build = build;
         this.notifier = notifier;
+    }
+
+    private Map<String, String> project() {
+        if (this.project == null) {
+            this.project = this.getProject(this.build);
+        }
+        return this.project;
+    }
+
+    private Map<String, String> files() {
+        if (this.files == null) {
+            this.files = this.getFiles(this.build);
+        }
+        return this.files;
+    }
+
+    private String jobURL() {
+        if (this.jobURL == null) {
+            this.jobURL = getJobURL(this.build);
+        }
+        return this.jobURL;
+    }
+
+    private String commits() {
+        if (this.commits == null) {
+            this.commits = StringUtils.defaultString(Helper.getCommitMessages(this.build));
+        }
+        return this.commits;
+    }
 
-        this.project = this.getProject(build);
-        this.job = this.getJob(build);
-        this.files = this.getFiles(build);
+    private String customStartMessage() {
+        if (this.customStartMessage == null) {
+            this.customStartMessage = this.notifier.getCustomStartTemplate().render(startedFields());
+        }
+        return this.customStartMessage;
+    }
+
+    private String customEndMessage() {
+        if (this.customEndMessage == null) {
+            this.customEndMessage = this.notifier.getCustomEndTemplate().render(completedFields());
+        }
+        return this.customEndMessage;
+    }
+
+    public String getCustomStartMessage() {
+        return customStartMessage();
+    }
+
+    public String getCustomEndMessage() {
+        return customEndMessage();
+    }
+
+    private String statusMessage() {
+        if (this.statusMessage == null) {
+            this.statusMessage = Helper.getBuildStatusMessage(this.notifier, this.build);
+        }
+        return this.statusMessage;
+    }
+
+    private MessageTemplate.Fields startedFields() {
+        if (this.startedFields == null) {
+            this.startedFields = new BuildFields(ActiveNotifier.PHASE_STARTED);
+        }
+        return this.startedFields;
+    }
+
+    private MessageTemplate.Fields completedFields() {
+        if (this.completedFields == null) {
+            this.completedFields = new BuildFields(ActiveNotifier.PHASE_COMPLETED);
+        }
+        return this.completedFields;
+    }
+
+    /**
+     * What a configured template can show: the build's environment variables, as
+     * {@link hudson.EnvVars#expand} would, then the fields of {@link #builtIn} for
+     * names no variable has.
+     */
+    private class BuildFields implements MessageTemplate.Fields {
+
+        private final MessageTemplate.Fields environment;
+
+        BuildFields(String phase) {
+            this.environment = Helper.environment(build, phase);
+        }
+
+        public String get(String name) {
+            String value = environment.get(name);
+            return value != null ? value : builtIn(name);
+        }
+    }
+
+    // the default titles show these fields only, a variable cannot stand in for them
+    private final MessageTemplate.Fields builtInFields = new MessageTemplate.Fields() {
+        public String get(String name) {
+            return builtIn(name);
+        }
+    };
+
+    private String builtIn(String name) {
+        switch (name) {
+            case "project_name":
+                return project().get("display_name");
+            case "project_url":
+                return project().get("url");
+            case "job_name":
+                return build.getDisplayName();
+            case "job_url":
+                return jobURL();
+            case "files":
+                return files().get("count");
+            case "authors":
+                return files().get("authors");
+            case "commits":
+                return commits();
+            case "status":
+                return statusMessage();
+            default:
+                return null;
+        }
+    }
+
+    private static final class DefaultLayouts {
+        final Locale locale;
+        final MessageTemplate started;
+        final MessageTemplate completed;
+
+        DefaultLayouts(Locale locale) {
+            this.locale = locale;
+            this.started = MessageTemplate.compile(Messages.JobStartedMessage(
+                    "${project_name}", "${project_url}", "${job_name}", "${job_url}"));
+            this.completed = MessageTemplate.compile(Messages.JobCompletedMessage(
+                    "${project_name}", "${project_url}", "${job_name}", "${job_url}", "${status}"));
+        }
+    }
+
+    private static DefaultLayouts defaultLayouts() {
+        DefaultLayouts layouts = defaultLayouts;
+        if (layouts == null || !layouts.locale.equals(Locale.getDefault())) {
+            defaultLayouts = layouts = new DefaultLayouts(Locale.getDefault());
+        }
+        return layouts;
     }
 
     private String getJobURL(AbstractBuild build) {
@@ -61,51 +210,36 @@ public class MessageBuilder {
         jobData.put("url", getJobURL(build));
 
         if (this.notifier.isIncludeCustomMessage()) {
-            jobData.put("custom_start_message", Helper.getCustomStartMessage(this.notifier, build));
-            jobData.put("custom_end_message", Helper.getCustomEndMessage(this.notifier, build));
+            jobData.put("custom_start_message", customStartMessage());
+            jobData.put("custom_end_message", customEndMessage());
         }
 
         return jobData;
     }
 
     public Map<String, String> getFiles(AbstractBuild build) {
-        ChangeLogSet changeSet = build.getChangeSet();
-        List<ChangeLogSet.Entry> entries = new LinkedList<ChangeLogSet.Entry>();
-        Set<ChangeLogSet.AffectedFile> files = new HashSet<ChangeLogSet.AffectedFile>();
-        for (Object o : changeSet.getItems()) {
-            ChangeLogSet.Entry entry = (ChangeLogSet.Entry) o;
-            entries.add(entry);
-            files.addAll(entry.getAffectedFiles());
-        }
-
-        Set<String> authors = new HashSet<String>();
-        for (ChangeLogSet.Entry entry : entries) {
-            String displayName = entry.getAuthor().getDisplayName();
-            authors.add(displayName);
-        }
+        ChangeSetDigest digest = ChangeSetDigest.of(build);
 
         Map<String, String> result = new HashMap<String, String>();
-        result.put("count", Integer.toString(files.size()));
-        result.put("authors", StringUtils.join(authors, ", "));
+        result.put("count", Long.toString(digest.getFileCount()));
+        result.put("authors", digest.getAuthors());
 
         return result;
     }
 
     public String getStartedMessage() {
-        String projectName = this.project.get("display_name");
-        String projectURL = this.project.get("url");
-
-        String jobName = this.job.get("display_name");
-        String jobURL = this.job.get("url");
-
-        return Messages.JobStartedMessage(projectName, projectURL, jobName, jobURL);
+        MessageTemplate layout = this.notifier.getStartedLayoutTemplate();
+        if (layout == null) {
+            return defaultLayouts().started.render(builtInFields);
+        }
+        return layout.render(startedFields());
     }
 
     public String getStartedFallback() {
-        String projectName = this.project.get("display_name");
-        String jobName = this.job.get("display_name");
+        String projectName = project().get("display_name");
+        String jobName = this.build.getDisplayName();
 
-        String authors = this.files.get("authors");
+        String authors = files().get("authors");
 
         if (authors.length() > 0) {
             authors = " by " + authors;
@@ -117,15 +251,14 @@ public class MessageBuilder {
     public String getStartedText() {
         StringBuffer text = new StringBuffer();
         if (this.notifier.isIncludeCustomMessage()) {
-            String customStartMessage = this.job.get("custom_start_message");
-            text.append(customStartMessage);
+            text.append(customStartMessage());
             text.append("\n");
         }
 
-        text.append(this.files.get("count"));
+        text.append(files().get("count"));
         text.append(" file(s) changed");
 
-        String authors = this.files.get("authors");
+        String authors = files().get("authors");
         if (authors.length() > 0) {
             text.append(" - ");
             text.append(authors);
@@ -136,21 +269,17 @@ public class MessageBuilder {
 
 
     public String getCompletedMessage() {
-        String projectName = this.project.get("display_name");
-        String projectURL = this.project.get("url");
-
-        String jobName = this.job.get("display_name");
-        String jobURL = this.job.get("url");
-
-        String statusWithDuration = Helper.getBuildStatusMessage(this.notifier, this.build);
-
-        return Messages.JobCompletedMessage(projectName, projectURL, jobName, jobURL, statusWithDuration);
+        MessageTemplate layout = this.notifier.getCompletedLayoutTemplate();
+        if (layout == null) {
+            return defaultLayouts().completed.render(builtInFields);
+        }
+        return layout.render(completedFields());
     }
 
     public String getCompletedFallback() {
-        String projectName = this.project.get("display_name");
-        String jobName = this.job.get("display_name");
-        String statusWithDuration = Helper.getBuildStatusMessage(this.notifier, this.build);
+        String projectName = project().get("display_name");
+        String jobName = this.build.getDisplayName();
+        String statusWithDuration = statusMessage();
 
         return Messages.JobCompletedFallback(projectName, jobName, statusWithDuration);
     }
@@ -158,14 +287,13 @@ public class MessageBuilder {
     public String getCompletedText() {
         StringBuffer text = new StringBuffer();
         if (this.notifier.isIncludeCustomMessage()) {
-            String customEndMessage = this.job.get("custom_end_message");
-            text.append(customEndMessage);
+            text.append(customEndMessage());
             text.append("\n");
         }
 
-        String commits = this.job.get("commits");
+        String commits = commits();
 
-        if (commits != null && commits.length() > 0) {
+        if (commits.length() > 0) {
             text.append(commits);
         } else {
             text.append("No Commits Changes");
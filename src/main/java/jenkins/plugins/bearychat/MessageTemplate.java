@@ -0,0 +1,157 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message with {@code $NAME} and {@code ${NAME}} placeholders, parsed once into
+ * its literal text and placeholder names. Substitution follows
+ * {@link hudson.EnvVars#expand}: {@code $$} stands for a dollar sign and a
+ * placeholder without a value is left as written.
+ *
+ * Rendering asks {@link Fields} for the values of the placeholders the template
+ * actually has, so a message without any never reads the build. Messages are
+ * assembled in a buffer kept per thread.
+ */
+public final class MessageTemplate {
+
+    static final MessageTemplate EMPTY = new MessageTemplate("", new String[] {""}, new String[0], new String[0]);
+
+    // a long message should not pin its buffer on a Jenkins executor thread
+    static final int MAX_RETAINED_BUFFER = 16 * 1024;
+
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /**
+     * Values for the placeholders of a message.
+     */
+    public interface Fields {
+        /**
+         * @return the value, or null to leave the placeholder as written
+         */
+        String get(String name);
+    }
+
+    private final String source;
+    // literals[i] comes before names[i], the last literal ends the message
+    private final String[] literals;
+    private final String[] names;
+    private final String[] placeholders;
+
+    private MessageTemplate(String source, String[] literals, String[] names, String[] placeholders) {
+        this.source = source;
+        this.literals = literals;
+        this.names = names;
+        this.placeholders = placeholders;
+    }
+
+    public static MessageTemplate compile(String source) {
+        if (source == null || source.length() == 0) {
+            return EMPTY;
+        }
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<String> placeholders = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c != '$' || i + 1 == source.length()) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            char next = source.charAt(i + 1);
+            if (next == '$') {
+                literal.append('$');
+                i += 2;
+                continue;
+            }
+            int end;
+            String name;
+            if (next == '{') {
+                end = source.indexOf('}', i + 2);
+                name = end < 0 ? null : source.substring(i + 2, end);
+                if (name == null || !isName(name, true)) {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+                end++;
+            } else {
+                end = i + 1;
+                while (end < source.length() && isNameChar(source.charAt(end), false)) {
+                    end++;
+                }
+                if (end == i + 1) {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+                name = source.substring(i + 1, end);
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            names.add(name);
+            placeholders.add(source.substring(i, end));
+            i = end;
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(source, literals.toArray(new String[literals.size()]),
+                names.toArray(new String[names.size()]), placeholders.toArray(new String[placeholders.size()]));
+    }
+
+    private static boolean isName(String name, boolean braced) {
+        if (name.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!isNameChar(name.charAt(i), braced)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameChar(char c, boolean braced) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || braced && c == '.';
+    }
+
+    public String render(Fields fields) {
+        if (names.length == 0) {
+            return literals[0];
+        }
+        // values first: a field may itself be rendered from a template on this thread
+        String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = fields.get(names[i]);
+        }
+        StringBuilder out = buffers.get();
+        out.setLength(0);
+        try {
+            for (int i = 0; i < names.length; i++) {
+                out.append(literals[i]);
+                out.append(values[i] != null ? values[i] : placeholders[i]);
+            }
+            out.append(literals[names.length]);
+            return out.toString();
+        } finally {
+            if (out.capacity() > MAX_RETAINED_BUFFER) {
+                buffers.remove();
+            }
+        }
+    }
+
+    public boolean hasPlaceholders() {
+        return names.length > 0;
+    }
+
+    public String getSource() {
+        return source;
+    }
+}
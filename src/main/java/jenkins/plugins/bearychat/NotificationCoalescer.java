@@ -0,0 +1,251 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+
+/**
+ * Buffers notifications per webhook and channel for a short window and merges
+ * each batch into a single message with one attachment per notification. A batch
+ * that would not fit the payload size limit goes out as several messages.
+ */
+public class NotificationCoalescer {
+
+    private static final Logger logger = Logger.getLogger(NotificationCoalescer.class.getName());
+
+    public static final int DEFAULT_WINDOW_SECONDS = 5;
+    public static final int DEFAULT_MAX_BATCH = 20;
+
+    /**
+     * Receives the notifications that come out of the coalescer.
+     */
+    public interface Sink {
+        void flush(QueuedNotification notification);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Sink sink;
+    private final Map<String, List<QueuedNotification>> batches = new HashMap<String, List<QueuedNotification>>();
+
+    private volatile boolean enabled;
+    private volatile long windowMillis = DEFAULT_WINDOW_SECONDS * 1000L;
+    private volatile int maxBatch = DEFAULT_MAX_BATCH;
+    private volatile int maxPayloadBytes = BearyChatPayload.DEFAULT_MAX_BYTES;
+
+    public NotificationCoalescer(ScheduledExecutorService scheduler, Sink sink) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    public void configure(boolean enabled, int windowSeconds, int maxBatch, int maxPayloadBytes) {
+        this.enabled = enabled;
+        this.windowMillis = windowSeconds * 1000L;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxPayloadBytes = maxPayloadBytes;
+        if (!enabled) {
+            flushAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds a notification to the batch of its webhook and channel. The first
+     * notification of a batch starts the window; a full batch is flushed at once.
+     * Notifications with different read timeouts or payload formats are batched
+     * apart so that each message keeps the settings its notifier asked for.
+     */
+    public void add(QueuedNotification notification) {
+        final String key = notification.getWebhook() + "#" + notification.getChannel() + "#"
+                + notification.getReadTimeoutMillis() + "#" + notification.getPayloadFormat();
+        List<QueuedNotification> full = null;
+        boolean first = false;
+        synchronized (this) {
+            List<QueuedNotification> batch = batches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<QueuedNotification>();
+                batches.put(key, batch);
+                first = true;
+            }
+            batch.add(notification);
+            if (batch.size() >= maxBatch) {
+                full = batches.remove(key);
+            }
+        }
+        if (full != null) {
+            send(full);
+            return;
+        }
+        if (first) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    public void run() {
+                        flush(key);
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flush(key);
+            }
+        }
+    }
+
+    private void flush(String key) {
+        List<QueuedNotification> batch;
+        synchronized (this) {
+            batch = batches.remove(key);
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    private void send(List<QueuedNotification> batch) {
+        for (QueuedNotification message : split(batch, maxPayloadBytes)) {
+            sink.flush(message);
+        }
+    }
+
+    public void flushAll() {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<String>(batches.keySet());
+        }
+        for (String key : keys) {
+            flush(key);
+        }
+    }
+
+    public synchronized int getBuffered() {
+        int buffered = 0;
+        for (List<QueuedNotification> batch : batches.values()) {
+            buffered += batch.size();
+        }
+        return buffered;
+    }
+
+    /**
+     * Merges a batch into as few messages as fit in {@code maxBytes}, keeping the
+     * notifications in order. A notification too large on its own is left as it is.
+     * The size of a message is added up from the parts it is made of, so that each
+     * message is merged and serialized once.
+     */
+    static List<QueuedNotification> split(List<QueuedNotification> batch, int maxBytes) {
+        List<QueuedNotification> messages = new ArrayList<QueuedNotification>();
+        // what a merged message takes before any part is added to it
+        int envelope = PayloadWriter.utf8Length(new BearyChatPayload(Messages.CoalescedMessage(batch.size()), "").toString())
+                + "\"attachments\":[],".length();
+        List<QueuedNotification> group = new ArrayList<QueuedNotification>();
+        int size = envelope;
+        for (QueuedNotification part : batch) {
+            int partSize = estimateSize(part);
+            if (!group.isEmpty() && size + partSize > maxBytes) {
+                messages.add(merge(group));
+                group = new ArrayList<QueuedNotification>();
+                size = envelope;
+            }
+            group.add(part);
+            size += partSize;
+        }
+        if (!group.isEmpty()) {
+            messages.add(merge(group));
+        }
+        return messages;
+    }
+
+    /**
+     * @return at least as many bytes as the part adds to a merged message
+     */
+    private static int estimateSize(QueuedNotification part) {
+        int size = 0;
+        for (BearyChatPayload.Attachment attachment : attachmentsOf(part.getPayload())) {
+            size += PayloadWriter.utf8Length(PayloadWriter.toJson(attachment)) + 1;
+        }
+        String fallback = fallbackOf(part.getPayload());
+        if (fallback != null) {
+            size += PayloadWriter.jsonLength(fallback) + 2;
+        }
+        for (Map.Entry<String, String> field : part.getPayload().getExtraFields().entrySet()) {
+            size += PayloadWriter.jsonLength(field.getKey()) + PayloadWriter.utf8Length(field.getValue()) + 4;
+        }
+        return size;
+    }
+
+    /**
+     * Merges a batch into one message whose attachments hold one entry per notification.
+     */
+    static QueuedNotification merge(List<QueuedNotification> batch) {
+        if (batch.size() == 1) {
+            return batch.get(0);
+        }
+        QueuedNotification first = batch.get(0);
+        BearyChatPayload payload = new BearyChatPayload(Messages.CoalescedMessage(batch.size()), null);
+        StringBuilder fallback = new StringBuilder();
+        long createdAt = first.getCreatedAt();
+        boolean urgent = false;
+        for (QueuedNotification part : batch) {
+            BearyChatPayload partPayload = part.getPayload();
+            for (BearyChatPayload.Attachment attachment : attachmentsOf(partPayload)) {
+                payload.addAttachment(attachment);
+            }
+            // the first part to set a field wins
+            for (Map.Entry<String, String> field : partPayload.getExtraFields().entrySet()) {
+                if (!payload.getExtraFields().containsKey(field.getKey())) {
+                    payload.putExtraField(field.getKey(), field.getValue());
+                }
+            }
+            String partFallback = fallbackOf(partPayload);
+            if (partFallback != null) {
+                if (fallback.length() > 0) {
+                    fallback.append("\n");
+                }
+                fallback.append(partFallback);
+            }
+            createdAt = Math.min(createdAt, part.getCreatedAt());
+            urgent |= part.isUrgent();
+        }
+        payload.setFallback(fallback.toString());
+
+        QueuedNotification merged = new QueuedNotification(first.getWebhook(), first.getChannel(), payload, createdAt);
+        merged.setUrgent(urgent);
+        merged.setPayloadFormat(first.getPayloadFormat());
+        merged.setReadTimeoutMillis(first.getReadTimeoutMillis());
+        merged.setParts(batch);
+        logger.fine("Coalesced " + batch.size() + " BearyChat notifications");
+        return merged;
+    }
+
+    /**
+     * The attachments a notification contributes to a merged message: its own, the
+     * first one led by the notification's text, or its text alone.
+     */
+    private static List<BearyChatPayload.Attachment> attachmentsOf(BearyChatPayload payload) {
+        List<BearyChatPayload.Attachment> attachments = payload.getAttachments();
+        String text = payload.getText();
+        if (attachments.isEmpty()) {
+            return Collections.singletonList(new BearyChatPayload.Attachment(null, text, null, null));
+        }
+        if (text == null) {
+            return attachments;
+        }
+        List<BearyChatPayload.Attachment> led = new ArrayList<BearyChatPayload.Attachment>(attachments);
+        BearyChatPayload.Attachment attachment = attachments.get(0);
+        String attachmentText = attachment.getText();
+        led.set(0, new BearyChatPayload.Attachment(attachment.getTitle(),
+                attachmentText == null ? text : text + "\n" + attachmentText,
+                attachment.getColor(), attachment.getUrl(), attachment.getExtraFields()));
+        return led;
+    }
+
+    private static String fallbackOf(BearyChatPayload payload) {
+        return payload.getFallback() != null ? payload.getFallback() : payload.getText();
+    }
+}
@@ -0,0 +1,74 @@
+package jenkins.plugins.bearychat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How a message is put on the wire when it is posted to a webhook.
+ */
+public enum PayloadFormat {
+    /** The historical {@code payload=} form parameter, accepted by every webhook. */
+    FORM("Form parameter", "application/x-www-form-urlencoded; charset=UTF-8", null),
+    /** The JSON document as the request body, without percent-encoding. */
+    JSON("JSON body", "application/json; charset=UTF-8", null),
+    /** The JSON body compressed with gzip. */
+    JSON_GZIP("Gzipped JSON body", "application/json; charset=UTF-8", "gzip");
+
+    private static final String UTF_8 = "UTF-8";
+
+    private final String displayName;
+    private final String contentType;
+    private final String contentEncoding;
+
+    PayloadFormat(String displayName, String contentType, String contentEncoding) {
+        this.displayName = displayName;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the {@code Content-Encoding} header value, or null
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public byte[] encode(String json) throws IOException {
+        switch (this) {
+            case FORM:
+                return ("payload=" + URLEncoder.encode(json, UTF_8)).getBytes(UTF_8);
+            case JSON:
+                return json.getBytes(UTF_8);
+            default:
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 2);
+                GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                gzip.write(json.getBytes(UTF_8));
+                gzip.close();
+                return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * @return the format with the given name, or the default if the name is empty or unknown
+     */
+    public static PayloadFormat fromName(String name, PayloadFormat defaultFormat) {
+        if (name == null || name.length() == 0) {
+            return defaultFormat;
+        }
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return defaultFormat;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link BearyChatPayload} as JSON without building an intermediate
+ * object tree. Strings are escaped in a single pass and {@link #toJson} reuses
+ * a per-thread buffer.
+ */
+public final class PayloadWriter {
+
+    // buffers that grew past this are not kept around
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Marks text cut by {@link #truncateJson}. */
+    public static final String ELLIPSIS = "\u2026";
+    private static final int ELLIPSIS_BYTES = 3;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    private PayloadWriter() {
+    }
+
+    public static String toJson(BearyChatPayload payload) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        try {
+            write(payload, buffer);
+            return buffer.toString();
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException(e);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    public static void write(BearyChatPayload payload, Appendable out) throws IOException {
+        out.append('{');
+        boolean first = true;
+        first = field(out, first, "text", payload.getText());
+        first = field(out, first, "fallback", payload.getFallback());
+        first = field(out, first, "channel", payload.getChannel());
+        List<BearyChatPayload.Attachment> attachments = payload.getAttachments();
+        if (!attachments.isEmpty()) {
+            if (!first) {
+                out.append(',');
+            }
+            out.append("\"attachments\":[");
+            for (int i = 0; i < attachments.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                write(attachments.get(i), out);
+            }
+            out.append(']');
+            first = false;
+        }
+        extraFields(out, first, payload.getExtraFields());
+        out.append('}');
+    }
+
+    static String toJson(BearyChatPayload.Attachment attachment) {
+        StringBuilder out = new StringBuilder(256);
+        try {
+            write(attachment, out);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static void write(BearyChatPayload.Attachment attachment, Appendable out) throws IOException {
+        out.append('{');
+        boolean first = true;
+        first = field(out, first, "title", attachment.getTitle());
+        first = field(out, first, "text", attachment.getText());
+        first = field(out, first, "color", attachment.getColor());
+        first = field(out, first, "url", attachment.getUrl());
+        extraFields(out, first, attachment.getExtraFields());
+        out.append('}');
+    }
+
+    // their values are JSON already
+    private static void extraFields(Appendable out, boolean first, Map<String, String> fields) throws IOException {
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            writeString(field.getKey(), out);
+            out.append(':').append(field.getValue());
+            first = false;
+        }
+    }
+
+    private static boolean field(Appendable out, boolean first, String name, String value) throws IOException {
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            out.append(',');
+        }
+        out.append('"').append(name).append("\":");
+        writeString(value, out);
+        return false;
+    }
+
+    /**
+     * Writes a quoted JSON string.
+     */
+    public static void writeString(CharSequence value, Appendable out) throws IOException {
+        out.append('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement = null;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                if (start < i) {
+                    out.append(value, start, i);
+                }
+                out.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF])
+                        .append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+                start = i + 1;
+                continue;
+            }
+            if (replacement != null) {
+                if (start < i) {
+                    out.append(value, start, i);
+                }
+                out.append(replacement);
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            out.append(value, start, length);
+        }
+        out.append('"');
+    }
+
+    /**
+     * Replaces {@code & < >} with HTML entities in one pass, returning the string itself if there is nothing to escape.
+     */
+    public static String escapeHtml(String value) {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c == '&' || c == '<' || c == '>') {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            return value;
+        }
+        StringBuilder escaped = new StringBuilder(length + 16);
+        escaped.append(value, 0, i);
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '&') {
+                escaped.append("&amp;");
+            } else if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * @return how many bytes {@code value} takes in UTF-8, without encoding it
+     */
+    public static int utf8Length(CharSequence value) {
+        return encodedLength(value, false);
+    }
+
+    /**
+     * @return how many bytes {@code value} takes in UTF-8 once escaped by {@link #writeString}, quotes excluded
+     */
+    static int jsonLength(CharSequence value) {
+        return encodedLength(value, true);
+    }
+
+    /**
+     * Cuts {@code value} so that it takes at most {@code maxBytes} in UTF-8 once escaped
+     * into JSON, ending it with {@link #ELLIPSIS} when anything was cut. A surrogate
+     * pair is never split, so the result always encodes to valid UTF-8.
+     */
+    static String truncateJson(String value, int maxBytes) {
+        if (value == null || encodedLength(value, true) <= maxBytes) {
+            return value;
+        }
+        int budget = maxBytes - ELLIPSIS_BYTES;
+        if (budget < 0) {
+            return "";
+        }
+        int length = value.length();
+        int bytes = 0;
+        int end = 0;
+        while (end < length) {
+            int size = encodedLength(value, end, true);
+            if (bytes + size > budget) {
+                break;
+            }
+            bytes += size;
+            end += isSurrogatePair(value, end) ? 2 : 1;
+        }
+        return value.substring(0, end) + ELLIPSIS;
+    }
+
+    private static int encodedLength(CharSequence value, boolean json) {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            bytes += encodedLength(value, i, json);
+            if (isSurrogatePair(value, i)) {
+                i++;
+            }
+        }
+        return bytes;
+    }
+
+    // the bytes of the character at i, a whole surrogate pair if it starts one
+    private static int encodedLength(CharSequence value, int i, boolean json) {
+        char c = value.charAt(i);
+        if (json) {
+            if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t') {
+                return 2;
+            }
+            if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                return 6;
+            }
+        }
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        if (isSurrogatePair(value, i)) {
+            return 4;
+        }
+        // a lone surrogate is encoded as '?'
+        return Character.isSurrogate(c) ? 1 : 3;
+    }
+
+    private static boolean isSurrogatePair(CharSequence value, int i) {
+        return Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1));
+    }
+}
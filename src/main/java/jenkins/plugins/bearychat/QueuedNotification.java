@@ -0,0 +1,138 @@
+package jenkins.plugins.bearychat;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A fully rendered BearyChat message waiting to be delivered to a webhook.
+ */
+public class QueuedNotification {
+
+    private final String webhook;
+    private final String channel;
+    private final BearyChatPayload payload;
+    private final long createdAt;
+    private volatile long journalId = -1;
+    private volatile int attempts;
+    private volatile boolean urgent;
+    private volatile long heldSince;
+    private volatile long idempotencyKey;
+    private volatile int readTimeoutMillis;
+    private List<QueuedNotification> parts = Collections.emptyList();
+    private PayloadFormat payloadFormat = PayloadFormat.FORM;
+
+    public QueuedNotification(String webhook, String channel, BearyChatPayload payload) {
+        this(webhook, channel, payload, System.currentTimeMillis());
+    }
+
+    QueuedNotification(String webhook, String channel, BearyChatPayload payload, long createdAt) {
+        this.webhook = webhook;
+        this.channel = channel;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public BearyChatPayload getPayload() {
+        return payload;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the id of this notification in the {@link BearyChatOutbox}, or -1 if it is not journaled
+     */
+    public long getJournalId() {
+        return journalId;
+    }
+
+    void setJournalId(long journalId) {
+        this.journalId = journalId;
+    }
+
+    /**
+     * Urgent notifications (build failures) may use the share of the rate limit
+     * that routine notifications leave untouched.
+     */
+    public boolean isUrgent() {
+        return urgent;
+    }
+
+    public void setUrgent(boolean urgent) {
+        this.urgent = urgent;
+    }
+
+    /**
+     * @return when the notification was first held back by a rate limit, from {@link System#nanoTime()}, or 0
+     */
+    long getHeldSince() {
+        return heldSince;
+    }
+
+    void setHeldSince(long heldSince) {
+        this.heldSince = heldSince;
+    }
+
+    /**
+     * @return the notifications merged into this one by the {@link NotificationCoalescer}, if any
+     */
+    public List<QueuedNotification> getParts() {
+        return parts;
+    }
+
+    void setParts(List<QueuedNotification> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * @return the {@link IdempotencyCache} key claimed for this notification, or 0 if it has none
+     */
+    public long getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(long idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    public void setPayloadFormat(PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat == null ? PayloadFormat.FORM : payloadFormat;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void attempted() {
+        attempts++;
+    }
+
+    public StandardBearyChatService newBearyChatService() {
+        StandardBearyChatService service = new StandardBearyChatService(webhook, channel);
+        service.setPayloadFormat(payloadFormat);
+        service.setIdempotencyKey(idempotencyKey);
+        service.setReadTimeoutMillis(readTimeoutMillis);
+        return service;
+    }
+}
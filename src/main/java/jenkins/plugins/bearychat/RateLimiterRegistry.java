@@ -0,0 +1,136 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets per webhook and channel and adaptive concurrency limits per webhook,
+ * the notifications waiting for them, and statistics on how long they waited.
+ */
+public class RateLimiterRegistry {
+
+    public static final int DEFAULT_PER_MINUTE = 60;
+    public static final int DEFAULT_BURST = 10;
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+    static final int INITIAL_CONCURRENCY = 2;
+    static final long LATENCY_TARGET_MILLIS = 2000;
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final ConcurrentMap<String, AdaptiveConcurrencyLimit> limits = new ConcurrentHashMap<String, AdaptiveConcurrencyLimit>();
+    // kept across configure(), they hold notifications
+    private final ConcurrentMap<String, WebhookWaitQueue> waitQueues = new ConcurrentHashMap<String, WebhookWaitQueue>();
+
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    private volatile int perMinute = DEFAULT_PER_MINUTE;
+    private volatile int burst = DEFAULT_BURST;
+    private volatile int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+    /**
+     * Applies new limits. Token buckets are rebuilt lazily; concurrency limits are
+     * kept and get the new ceiling, so that the posts in flight still count.
+     */
+    public void configure(int perMinute, int burst, int maxConcurrency) {
+        if (perMinute != this.perMinute || burst != this.burst) {
+            this.perMinute = perMinute;
+            this.burst = burst;
+            buckets.clear();
+        }
+        if (maxConcurrency != this.maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            for (AdaptiveConcurrencyLimit limit : limits.values()) {
+                limit.setMaxLimit(maxConcurrency);
+            }
+        }
+    }
+
+    public TokenBucket getBucket(String webhook, String channel) {
+        String key = webhook + "#" + channel;
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket(perMinute, burst, System.nanoTime());
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    public AdaptiveConcurrencyLimit getConcurrencyLimit(String webhook) {
+        String key = webhook == null ? "" : webhook;
+        AdaptiveConcurrencyLimit limit = limits.get(key);
+        if (limit == null) {
+            AdaptiveConcurrencyLimit created = new AdaptiveConcurrencyLimit(key,
+                    Math.min(INITIAL_CONCURRENCY, maxConcurrency), maxConcurrency, LATENCY_TARGET_MILLIS);
+            limit = limits.putIfAbsent(key, created);
+            if (limit == null) {
+                limit = created;
+            }
+        }
+        return limit;
+    }
+
+    public WebhookWaitQueue getWaitQueue(String webhook) {
+        String key = webhook == null ? "" : webhook;
+        WebhookWaitQueue queue = waitQueues.get(key);
+        if (queue == null) {
+            WebhookWaitQueue created = new WebhookWaitQueue(webhook);
+            queue = waitQueues.putIfAbsent(key, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * @return how many notifications are waiting for a token or a slot, over all webhooks
+     */
+    public int getHeld() {
+        int held = 0;
+        for (WebhookWaitQueue queue : waitQueues.values()) {
+            held += queue.size();
+        }
+        return held;
+    }
+
+    public Collection<AdaptiveConcurrencyLimit> getConcurrencyLimits() {
+        return new ArrayList<AdaptiveConcurrencyLimit>(limits.values());
+    }
+
+    /**
+     * Records how long a notification was held back before it could be posted.
+     */
+    public void recordWait(long waitNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        waited.incrementAndGet();
+        totalWaitMillis.addAndGet(millis);
+        long max;
+        while (millis > (max = maxWaitMillis.get())) {
+            if (maxWaitMillis.compareAndSet(max, millis)) {
+                break;
+            }
+        }
+    }
+
+    public long getWaited() {
+        return waited.get();
+    }
+
+    public long getAverageWaitMillis() {
+        long count = waited.get();
+        return count == 0 ? 0 : totalWaitMillis.get() / count;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+}
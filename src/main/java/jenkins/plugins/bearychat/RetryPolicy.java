@@ -0,0 +1,48 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter, bounded by a per-notification deadline.
+ */
+public class RetryPolicy {
+
+    public static final long INITIAL_DELAY = 1000L;
+    public static final long MAX_DELAY = 5 * 60 * 1000L;
+    public static final int DEFAULT_DEADLINE_MINUTES = 60;
+
+    private final long deadlineMillis;
+
+    public RetryPolicy(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Computes how long to wait before the next attempt.
+     *
+     * @param attempts number of attempts made so far, at least 1
+     * @param retryAfterMillis delay requested by the server, or -1
+     * @param createdAt creation time of the notification
+     * @param now current time
+     * @return the delay in milliseconds, or -1 if the next attempt would miss the deadline
+     */
+    public long nextDelay(int attempts, long retryAfterMillis, long createdAt, long now) {
+        long delay;
+        if (retryAfterMillis >= 0) {
+            delay = retryAfterMillis;
+        } else {
+            long backoff = INITIAL_DELAY << Math.min(Math.max(attempts - 1, 0), 20);
+            backoff = Math.min(backoff, MAX_DELAY);
+            // equal jitter: keep half of the backoff, randomize the other half
+            delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        }
+        if (now + delay > createdAt + deadlineMillis) {
+            return -1;
+        }
+        return delay;
+    }
+}
@@ -1,15 +1,23 @@
 package jenkins.plugins.bearychat;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
-import hudson.ProxyConfiguration;
 import jenkins.model.Jenkins;
 
 public class StandardBearyChatService implements BearyChatService {
@@ -18,8 +26,16 @@ public class StandardBearyChatService implements BearyChatService {
 
     public static final String VERSION = "3.0";
 
+    static final long GZIP_REJECTION_TTL = TimeUnit.HOURS.toMillis(1);
+
+    // hosts that rejected a gzipped body, and until when they get plain JSON
+    private static final ConcurrentHashMap<String, Long> GZIP_REJECTED = new ConcurrentHashMap<String, Long>();
+
     private String webhook;
     private String channel;
+    private PayloadFormat payloadFormat = PayloadFormat.FORM;
+    private long idempotencyKey;
+    private int readTimeoutMillis;
 
     public StandardBearyChatService(String webhook, String channel) {
         super();
@@ -45,91 +61,227 @@ public class StandardBearyChatService implements BearyChatService {
         return attachment;
     }
 
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    public void setPayloadFormat(PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat == null ? PayloadFormat.FORM : payloadFormat;
+    }
+
+    public long getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * Sent along as {@code X-Idempotency-Key} so that the server can drop a retried post it already accepted.
+     */
+    public void setIdempotencyKey(long idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Overrides the global read timeout for this service; 0 uses the global or adaptive one.
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
     public boolean publish(String message) {
-        JSONObject data = new JSONObject();
-        data.put("text", message);
-        return publish(data);
+        return publish(new BearyChatPayload(message, null));
     }
 
-    public boolean publish(String message, String text, String fallback, String color) {
+    public BearyChatPayload genPayload(String message, String text, String fallback, String color) {
+        BearyChatPayload payload = new BearyChatPayload(message, fallback);
+        payload.addAttachment(new BearyChatPayload.Attachment(null, text, color, null));
+        return payload;
+    }
+
+    public JSONObject genData(String message, String text, String fallback, String color) {
         JSONObject attachment = this.genAttachment(null, text, color, null);
         JSONArray attachments = new JSONArray();
         attachments.add(attachment);
-        return publish(message, attachments, fallback);
+        return genData(message, attachments, fallback);
     }
 
-    public boolean publish(String message, JSONArray attachments, String fallback) {
+    public JSONObject genData(String message, JSONArray attachments, String fallback) {
         JSONObject data = new JSONObject();
         if (fallback != null) {
             data.put("fallback", fallback);
         }
         data.put("text", message);
         data.put("attachments", attachments);
-        return publish(data);
+        return data;
+    }
+
+    public boolean publish(String message, String text, String fallback, String color) {
+        return publish(genPayload(message, text, fallback, color));
+    }
+
+    public boolean publish(String message, JSONArray attachments, String fallback) {
+        return publish(genData(message, attachments, fallback));
     }
 
     public boolean publish(JSONObject data) {
-        boolean result = true;
-        String url = getPostUrl();
-        logger.info("Post to " + channel + " on " + url + ": " + data);
-        HttpClient client = getHttpClient();
-        PostMethod post = new PostMethod(url);
+        return publish(BearyChatPayload.fromJSON(data));
+    }
+
+    public boolean publish(BearyChatPayload payload) {
+        return send(payload).isSuccess();
+    }
 
+    public DeliveryResult send(JSONObject data) {
+        return send(BearyChatPayload.fromJSON(data));
+    }
+
+    /**
+     * Makes a single attempt to post the message and reports how it went.
+     */
+    public DeliveryResult send(BearyChatPayload payload) {
+        try {
+            return sendAsync(payload).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DeliveryResult.fromException(new InterruptedIOException("Interrupted while posting to BearyChat"));
+        } catch (ExecutionException e) {
+            return DeliveryResult.fromException(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+    }
+
+    /**
+     * Like {@link #send(BearyChatPayload)}, but returns as soon as the post has been
+     * handed to the transport. The future never fails.
+     */
+    public ListenableFuture<DeliveryResult> sendAsync(BearyChatPayload payload) {
+        final String url = getPostUrl();
         if (this.channel != null) {
-            data.put("channel", this.channel);
+            payload.setChannel(this.channel);
         }
 
-        try {
-            post.addRequestHeader("X-JENKINS-VERSION", Jenkins.VERSION);
-            post.addRequestHeader("X-PLUGIN-VERSION", VERSION);
-            post.addParameter("payload", data.toString());
-            post.getParams().setContentCharset("UTF-8");
-
-            int responseCode = client.executeMethod(post);
-            String response = post.getResponseBodyAsString();
-            if (responseCode != HttpStatus.SC_OK) {
-                logger.log(Level.WARNING, "BearyChat post may have failed. Response: " + response);
-                result = false;
-            } else {
-                logger.info("Posting succeeded");
+        final String json = PayloadWriter.toJson(payload);
+        logger.info("Post to " + channel + " on " + url + ": " + json);
+        PayloadFormat format = payloadFormat;
+        if (format == PayloadFormat.JSON_GZIP && isGzipRejected(getHost(), System.currentTimeMillis())) {
+            format = PayloadFormat.JSON;
+        }
+        ListenableFuture<DeliveryResult> result = send(url, json, format);
+        if (format != PayloadFormat.JSON_GZIP) {
+            return result;
+        }
+        return Futures.transform(result, new AsyncFunction<DeliveryResult, DeliveryResult>() {
+            public ListenableFuture<DeliveryResult> apply(DeliveryResult first) {
+                if (!rejectsGzip(first)) {
+                    return Futures.immediateFuture(first);
+                }
+                logger.info("BearyChat webhook host " + getHost() + " does not accept gzip, falling back to plain JSON");
+                GZIP_REJECTED.put(getHost(), System.currentTimeMillis() + GZIP_REJECTION_TTL);
+                return send(url, json, PayloadFormat.JSON);
             }
+        });
+    }
+
+    /**
+     * @return whether the response turns down the gzip encoding rather than the message:
+     * a 415, or a 400 that names the encoding
+     */
+    static boolean rejectsGzip(DeliveryResult result) {
+        if (result.getStatusCode() == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE) {
+            return true;
+        }
+        if (result.getStatusCode() != HttpStatus.SC_BAD_REQUEST || result.getMessage() == null) {
+            return false;
+        }
+        String message = result.getMessage().toLowerCase(Locale.ENGLISH);
+        return message.contains("gzip") || message.contains("encoding");
+    }
+
+    static boolean isGzipRejected(String host, long now) {
+        Long until = GZIP_REJECTED.get(host);
+        if (until == null) {
+            return false;
+        }
+        if (until > now) {
+            return true;
+        }
+        // give gzip another chance, the host may have been upgraded
+        GZIP_REJECTED.remove(host, until);
+        return false;
+    }
 
-        } catch (NullPointerException e) {
-            result = false;
-        } catch (Exception e) {
-            result = false;
-            logger.log(Level.WARNING, "Error posting to BearyChat", e);
-        } finally {
-            post.releaseConnection();
+    private ListenableFuture<DeliveryResult> send(String url, String json, PayloadFormat format) {
+        final long start = System.currentTimeMillis();
+        final BearyChatMetrics.WebhookMetrics metrics = BearyChatMetrics.get().forWebhook(webhook);
+        byte[] body;
+        try {
+            body = format.encode(json);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error encoding BearyChat payload", e);
+            metrics.recordAttempt(0, 0, 0);
+            return Futures.immediateFuture(DeliveryResult.fromException(e));
+        }
+        final int bytes = body.length;
+        TransportRequest request = new TransportRequest(url, body, format.getContentType());
+        request.setReadTimeoutMillis(BearyChatConnectionPool.get().getTimeouts()
+                .readTimeout(metrics.getSuccessMillis(), readTimeoutMillis));
+        request.addHeader("X-JENKINS-VERSION", Jenkins.VERSION);
+        request.addHeader("X-PLUGIN-VERSION", VERSION);
+        if (idempotencyKey != 0) {
+            request.addHeader("X-Idempotency-Key", Long.toHexString(idempotencyKey));
         }
+        if (format.getContentEncoding() != null) {
+            request.addHeader("Content-Encoding", format.getContentEncoding());
+        }
+
+        ListenableFuture<DeliveryResult> result = getTransport().post(request);
+        Futures.addCallback(result, new FutureCallback<DeliveryResult>() {
+            public void onSuccess(DeliveryResult delivered) {
+                if (delivered.getStatusCode() == HttpStatus.SC_OK) {
+                    logger.info("Posting succeeded");
+                } else if (delivered.getStatusCode() != 0) {
+                    logger.log(Level.WARNING, "BearyChat post may have failed. Response: " + delivered.getMessage());
+                }
+                metrics.recordAttempt(delivered.getStatusCode(), System.currentTimeMillis() - start, bytes);
+            }
 
+            public void onFailure(Throwable t) {
+                metrics.recordAttempt(0, System.currentTimeMillis() - start, bytes);
+            }
+        });
         return result;
     }
 
+    private String getHost() {
+        try {
+            // with the port: another port is another server
+            return new URL(webhook).getAuthority();
+        } catch (MalformedURLException e) {
+            return String.valueOf(webhook);
+        }
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
     public String getPostUrl() {
         // Adding version in QueryString for statistic.
         return webhook + "?v=" + VERSION;
     }
 
     protected HttpClient getHttpClient() {
-        HttpClient client = new HttpClient();
-        Jenkins instance = Jenkins.getInstance();
-        ProxyConfiguration proxy = instance == null ? null : instance.proxy;
-        if (proxy != null) {
-            client.getHostConfiguration().setProxy(proxy.name, proxy.port);
-            String username = proxy.getUserName();
-            String password = proxy.getPassword();
-            // Consider it to be passed if username specified. Sufficient?
-            if (username != null && !"".equals(username.trim())) {
-                logger.info("Using proxy authentication (user=" + username + ")");
-                // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
-                // and
-                // http://svn.apache.org/viewvc/httpcomponents/oac.hc3x/trunk/src/examples/BasicAuthenticationExample.java?view=markup
-                client.getState().setProxyCredentials(AuthScope.ANY,
-                        new UsernamePasswordCredentials(username, password));
-            }
-        }
-        return client;
+        return BearyChatConnectionPool.get().getHttpClient();
+    }
+
+    protected BearyChatTransport getTransport() {
+        return BearyChatTransports.get().current();
     }
 
 }
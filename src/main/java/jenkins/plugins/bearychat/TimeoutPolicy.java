@@ -0,0 +1,74 @@
+package jenkins.plugins.bearychat;
+
+/**
+ * Connect, read and connection pool timeouts for posts to BearyChat.
+ *
+ * In adaptive mode the read timeout of a webhook follows its observed p99
+ * latency of successful posts times {@link #ADAPTIVE_FACTOR}, clamped between
+ * a floor and a ceiling, so slow but healthy endpoints get more time and dead
+ * ones fail fast. A read timeout set on a notifier always wins.
+ */
+public class TimeoutPolicy {
+
+    public static final int DEFAULT_CONNECT_SECONDS = 10;
+    public static final int DEFAULT_READ_SECONDS = 30;
+    public static final int DEFAULT_POOL_SECONDS = 10;
+    public static final int DEFAULT_FLOOR_SECONDS = 2;
+    public static final int DEFAULT_CEILING_SECONDS = 60;
+
+    static final int ADAPTIVE_FACTOR = 3;
+    // below this many successful posts the p99 is not worth trusting
+    static final long ADAPTIVE_MIN_SAMPLES = 20;
+
+    private final int connectMillis;
+    private final int readMillis;
+    private final int poolMillis;
+    private final boolean adaptive;
+    private final int floorMillis;
+    private final int ceilingMillis;
+
+    public TimeoutPolicy(int connectMillis, int readMillis, int poolMillis, boolean adaptive, int floorMillis, int ceilingMillis) {
+        this.connectMillis = connectMillis;
+        this.readMillis = readMillis;
+        this.poolMillis = poolMillis;
+        this.adaptive = adaptive;
+        this.floorMillis = floorMillis;
+        this.ceilingMillis = Math.max(floorMillis, ceilingMillis);
+    }
+
+    public static TimeoutPolicy defaults() {
+        return new TimeoutPolicy(DEFAULT_CONNECT_SECONDS * 1000, DEFAULT_READ_SECONDS * 1000, DEFAULT_POOL_SECONDS * 1000,
+                false, DEFAULT_FLOOR_SECONDS * 1000, DEFAULT_CEILING_SECONDS * 1000);
+    }
+
+    public int getConnectMillis() {
+        return connectMillis;
+    }
+
+    public int getReadMillis() {
+        return readMillis;
+    }
+
+    public int getPoolMillis() {
+        return poolMillis;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @param successMillis latencies of successful posts to the webhook
+     * @param overrideMillis read timeout configured on the notifier, or 0
+     */
+    public int readTimeout(LogHistogram successMillis, int overrideMillis) {
+        if (overrideMillis > 0) {
+            return overrideMillis;
+        }
+        if (!adaptive || successMillis == null || successMillis.getCount() < ADAPTIVE_MIN_SAMPLES) {
+            return readMillis;
+        }
+        long target = successMillis.getQuantile(0.99) * ADAPTIVE_FACTOR;
+        return (int) Math.max(floorMillis, Math.min(ceilingMillis, target));
+    }
+}
@@ -0,0 +1,56 @@
+package jenkins.plugins.bearychat;
+
+/**
+ * Token bucket limiting how fast notifications are posted to one webhook and channel.
+ *
+ * A share of the bucket is reserved for urgent notifications (failures), so a burst
+ * of routine messages cannot make a failure notification wait behind it. The
+ * reserve is at least one token, except with a burst of 1, where it is 0 so that
+ * routine notifications can be posted at all.
+ */
+public class TokenBucket {
+
+    static final double URGENT_RESERVE = 0.2;
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private final double reserve;
+
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(int perMinute, int burst, long now) {
+        this.tokensPerNano = perMinute / 60e9;
+        this.capacity = Math.max(1, burst);
+        this.reserve = capacity > 1 ? Math.max(1, capacity * URGENT_RESERVE) : 0;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param now current time from {@link System#nanoTime()}
+     * @return 0 if a token was taken, otherwise the nanoseconds to wait before trying again
+     */
+    public synchronized long tryAcquire(boolean urgent, long now) {
+        refill(now);
+        double needed = urgent ? 1 : 1 + reserve;
+        if (tokens >= needed) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((needed - tokens) / tokensPerNano));
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+
+    synchronized double getTokens() {
+        return tokens;
+    }
+}
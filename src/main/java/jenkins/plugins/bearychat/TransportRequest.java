@@ -0,0 +1,52 @@
+package jenkins.plugins.bearychat;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single post to a webhook, already encoded for the wire.
+ */
+public class TransportRequest {
+
+    private final String url;
+    private final byte[] body;
+    private final String contentType;
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+    private int readTimeoutMillis;
+
+    public TransportRequest(String url, byte[] body, String contentType) {
+        this.url = url;
+        this.body = body;
+        this.contentType = contentType;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public TransportRequest addHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+}
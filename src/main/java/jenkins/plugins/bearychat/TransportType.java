@@ -0,0 +1,35 @@
+package jenkins.plugins.bearychat;
+
+/**
+ * The HTTP clients a webhook can be posted through.
+ */
+public enum TransportType {
+    /** commons-httpclient, one blocking call per delivery worker. */
+    HTTP_CLIENT("Blocking (commons-httpclient)"),
+    /** HttpAsyncClient, many posts in flight on a few I/O threads. */
+    ASYNC("Non-blocking (HttpAsyncClient)");
+
+    private final String displayName;
+
+    TransportType(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return the transport with the given name, or the default if the name is empty or unknown
+     */
+    public static TransportType fromName(String name, TransportType defaultType) {
+        if (name == null || name.length() == 0) {
+            return defaultType;
+        }
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return defaultType;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import jenkins.model.Jenkins;
+
+/**
+ * Finds the commits to show for a build without changes of its own by following
+ * its upstream causes, and remembers what each upstream build resolved to so that
+ * every downstream build of a fan-out reuses the same summary.
+ *
+ * Entries are keyed by upstream job, build number and build timestamp: a job that is
+ * deleted and recreated reuses build numbers, but not timestamps. The chain is followed
+ * at most {@link #MAX_DEPTH} builds up and a build seen twice ends it. The cache holds
+ * a bounded number of builds, evicting the least recently used.
+ */
+public class UpstreamCommitCache {
+
+    private static final Logger logger = Logger.getLogger(UpstreamCommitCache.class.getName());
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int MAX_DEPTH = 10;
+
+    static final String NO_COMMITS = "No Commit Changes.";
+
+    private static final UpstreamCommitCache INSTANCE = new UpstreamCommitCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<String, String> entries;
+    private long hits;
+    private long misses;
+
+    UpstreamCommitCache(final int capacity) {
+        this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static UpstreamCommitCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the commit lines of {@code build}, or of the first upstream build with changes
+     */
+    public String getCommitMessages(AbstractBuild build) {
+        ChangeSetDigest digest = ChangeSetDigest.of(build);
+        if (!digest.isEmpty()) {
+            return digest.getCommitMessages();
+        }
+        List<String> walked = new ArrayList<String>();
+        Resolution resolution = resolve(build, walked);
+        // every upstream build walked through resolves to what the chain ends with, unless
+        // the walk gave up: a later walk from elsewhere may well get further
+        if (resolution.definitive) {
+            synchronized (this) {
+                for (String key : walked) {
+                    entries.put(key, resolution.commits);
+                }
+            }
+        }
+        return resolution.commits;
+    }
+
+    private static final class Resolution {
+        static final Resolution NONE = new Resolution(NO_COMMITS, true);
+        static final Resolution GAVE_UP = new Resolution(NO_COMMITS, false);
+
+        final String commits;
+        final boolean definitive;
+
+        Resolution(String commits, boolean definitive) {
+            this.commits = commits;
+            this.definitive = definitive;
+        }
+    }
+
+    private Resolution resolve(AbstractBuild build, List<String> walked) {
+        AbstractBuild current = build;
+        while (true) {
+            Cause.UpstreamCause cause = (Cause.UpstreamCause) current.getCause(Cause.UpstreamCause.class);
+            if (cause == null) {
+                return Resolution.NONE;
+            }
+            String upstreamId = cause.getUpstreamProject() + "#" + cause.getUpstreamBuild();
+            if (walked.size() >= MAX_DEPTH) {
+                logger.info("Gave up looking for upstream changes after " + MAX_DEPTH + " builds, at " + upstreamId);
+                return Resolution.GAVE_UP;
+            }
+            current = findBuild(cause.getUpstreamProject(), cause.getUpstreamBuild());
+            if (current == null) {
+                return Resolution.GAVE_UP;
+            }
+            String key = upstreamId + "#" + current.getTimeInMillis();
+            synchronized (this) {
+                String cached = entries.get(key);
+                if (cached != null) {
+                    hits++;
+                    return new Resolution(cached, true);
+                }
+                misses++;
+            }
+            if (walked.contains(key)) {
+                logger.warning("Upstream builds form a cycle at " + upstreamId);
+                return Resolution.GAVE_UP;
+            }
+            walked.add(key);
+            // summarized rather than ChangeSetDigest.of(): the upstream build is done and need not be kept
+            ChangeSetDigest upstream = ChangeSetDigest.summarize(cause.getUpstreamProject(), current.getChangeSet());
+            if (!upstream.isEmpty()) {
+                return new Resolution(upstream.getCommitMessages(), true);
+            }
+        }
+    }
+
+    AbstractBuild findBuild(String fullName, int number) {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return null;
+        }
+        AbstractProject project = jenkins.getItemByFullName(fullName, AbstractProject.class);
+        if (project == null) {
+            logger.info("get project failure");
+            return null;
+        }
+        return (AbstractBuild) project.getBuildByNumber(number);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
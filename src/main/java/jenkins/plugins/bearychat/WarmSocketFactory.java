@@ -0,0 +1,105 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+/**
+ * Opens webhook connections using addresses from a {@link DnsCache} and, for
+ * https, finishes the TLS handshake as soon as the socket is created, so that
+ * a pre-warmed pooled connection is fully ready before the first post.
+ */
+class WarmSocketFactory implements ProtocolSocketFactory {
+
+    private final DnsCache dnsCache;
+
+    WarmSocketFactory(DnsCache dnsCache) {
+        this.dnsCache = dnsCache;
+    }
+
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+                               HttpConnectionParams params) throws IOException {
+        int timeout = params == null ? 0 : params.getConnectionTimeout();
+        int soTimeout = params == null ? 0 : params.getSoTimeout();
+        // httpclient only sets the read timeout once the socket is returned, and a
+        // peer that takes the connection but never answers the handshake must not
+        // hold a worker forever
+        int handshakeTimeout = soTimeout > 0 ? soTimeout
+                : timeout > 0 ? timeout : TimeoutPolicy.DEFAULT_CONNECT_SECONDS * 1000;
+        InetAddress[] addresses = dnsCache.resolve(host);
+        IOException failure = null;
+        for (InetAddress address : addresses) {
+            Socket socket = new Socket();
+            try {
+                if (localAddress != null) {
+                    socket.bind(new InetSocketAddress(localAddress, localPort));
+                }
+                socket.connect(new InetSocketAddress(address, port), timeout);
+                socket.setSoTimeout(handshakeTimeout);
+                Socket layered = layer(socket, host, port);
+                layered.setSoTimeout(soTimeout);
+                return layered;
+            } catch (IOException e) {
+                closeQuietly(socket);
+                failure = e;
+            }
+        }
+        // the cached addresses may be stale, look the host up again next time
+        dnsCache.evict(host);
+        if (failure instanceof SocketTimeoutException) {
+            throw new ConnectTimeoutException("Timed out connecting to " + host + ":" + port);
+        }
+        throw failure != null ? failure : new UnknownHostException(host);
+    }
+
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+        return createSocket(host, port, localAddress, localPort, null);
+    }
+
+    public Socket createSocket(String host, int port) throws IOException {
+        return createSocket(host, port, null, 0, null);
+    }
+
+    protected Socket layer(Socket socket, String host, int port) throws IOException {
+        return socket;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing useful to do
+        }
+    }
+
+    /**
+     * The https flavour; httpclient treats a protocol as secure by the type of its factory.
+     */
+    static class Secure extends WarmSocketFactory implements SecureProtocolSocketFactory {
+
+        Secure(DnsCache dnsCache) {
+            super(dnsCache);
+        }
+
+        @Override
+        protected Socket layer(Socket socket, String host, int port) throws IOException {
+            return createSocket(socket, host, port, true);
+        }
+
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, autoClose);
+            ssl.startHandshake();
+            return ssl;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package jenkins.plugins.bearychat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Notifications held back by the rate or concurrency limit of one webhook, waiting
+ * for a token or a slot to free up. They stay here rather than in the delivery
+ * queue, so they neither take its room nor compete with new notifications for it.
+ *
+ * Each channel keeps its own line, urgent notifications ahead of the others, and
+ * the channels take turns so that one busy channel cannot starve the rest.
+ */
+public class WebhookWaitQueue {
+
+    private final String webhook;
+    private final Map<String, Line> lines = new LinkedHashMap<String, Line>();
+    private int size;
+    private long nextWaitNanos;
+    private boolean wakeUpScheduled;
+
+    private static class Line {
+        final LinkedList<QueuedNotification> notifications = new LinkedList<QueuedNotification>();
+        int urgent;
+    }
+
+    WebhookWaitQueue(String webhook) {
+        this.webhook = webhook;
+    }
+
+    public String getWebhook() {
+        return webhook;
+    }
+
+    public synchronized void hold(QueuedNotification notification) {
+        if (notification.getHeldSince() == 0) {
+            notification.setHeldSince(System.nanoTime());
+        }
+        String channel = channel(notification);
+        Line line = lines.get(channel);
+        if (line == null) {
+            line = new Line();
+            lines.put(channel, line);
+        }
+        if (notification.isUrgent()) {
+            line.notifications.add(line.urgent++, notification);
+        } else {
+            line.notifications.add(notification);
+        }
+        size++;
+    }
+
+    /**
+     * Takes the first notification whose channel has a token, taking the token too.
+     *
+     * @return null if every channel has to wait, see {@link #getNextWaitNanos}
+     */
+    public synchronized QueuedNotification poll(RateLimiterRegistry rateLimiters, long now) {
+        nextWaitNanos = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Line>> entries = lines.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Line> entry = entries.next();
+            Line line = entry.getValue();
+            QueuedNotification head = line.notifications.getFirst();
+            long wait = rateLimiters.getBucket(webhook, head.getChannel()).tryAcquire(head.isUrgent(), now);
+            if (wait > 0) {
+                nextWaitNanos = Math.min(nextWaitNanos, wait);
+                continue;
+            }
+            line.notifications.removeFirst();
+            if (head.isUrgent()) {
+                line.urgent--;
+            }
+            size--;
+            // the channel goes to the back of the round
+            entries.remove();
+            if (!line.notifications.isEmpty()) {
+                lines.put(entry.getKey(), line);
+            }
+            return head;
+        }
+        return null;
+    }
+
+    /**
+     * @return how long the last {@link #poll} that found nothing says to wait for a token
+     */
+    public synchronized long getNextWaitNanos() {
+        return nextWaitNanos;
+    }
+
+    /**
+     * Claims the one timer that wakes this queue up when a token is due.
+     *
+     * @return false if one is already scheduled
+     */
+    synchronized boolean scheduleWakeUp() {
+        if (wakeUpScheduled) {
+            return false;
+        }
+        wakeUpScheduled = true;
+        return true;
+    }
+
+    synchronized void wokeUp() {
+        wakeUpScheduled = false;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static String channel(QueuedNotification notification) {
+        return notification.getChannel() == null ? "" : notification.getChannel();
+    }
+}
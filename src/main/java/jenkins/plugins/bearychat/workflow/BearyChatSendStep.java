@@ -3,7 +3,6 @@ package jenkins.plugins.bearychat.workflow;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
-import net.sf.json.JSONArray;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
@@ -13,15 +12,17 @@ import org.kohsuke.stapler.DataBoundSetter;
 import hudson.AbortException;
 import hudson.Extension;
 import hudson.Util;
+import hudson.model.Run;
 import hudson.model.TaskListener;
-import net.sf.json.JSONObject;
 
 import jenkins.model.Jenkins;
 import jenkins.plugins.bearychat.Messages;
 import jenkins.plugins.bearychat.BearyChatNotifier;
+import jenkins.plugins.bearychat.BearyChatPayload;
 import jenkins.plugins.bearychat.BearyChatService;
 import jenkins.plugins.bearychat.StandardBearyChatService;
 import jenkins.plugins.bearychat.Helper;
+import jenkins.plugins.bearychat.IdempotencyCache;
 
 /**
  * Workflow step to send a BearyChat channel notification.
@@ -147,40 +148,13 @@ public class BearyChatSendStep extends AbstractStepImpl {
         @StepContextParameter
         transient TaskListener listener;
 
-        protected JSONObject buildData (String message, String title, String attachmenText, String notification, String url, String color) {
-            JSONObject data = new JSONObject();
-            JSONObject attachment = new JSONObject();
-            JSONArray attachments = new JSONArray();
-
-            if (title != null) {
-                attachment.put("title", title);
-            }
-
-            if (attachmenText != null) {
-                attachment.put("text", attachmenText);
-            }
-
-            if (color != null) {
-                attachment.put("color", color);
-            }
-
-            if (url != null) {
-                attachment.put("url", url);
-            }
-
-            attachments.add(attachment);
-
-            if (message != null) {
-                data.put("text", message);
-            }
-
-            if (notification != null) {
-                data.put("fallback", notification);
-            }
-
-            data.put("attachments", attachments);
+        @StepContextParameter
+        transient Run<?, ?> run;
 
-            return data;
+        protected BearyChatPayload buildData (String message, String title, String attachmenText, String notification, String url, String color) {
+            BearyChatPayload payload = new BearyChatPayload(message, notification);
+            payload.addAttachment(new BearyChatPayload.Attachment(title, attachmenText, color, url));
+            return payload;
         }
 
         @Override
@@ -210,12 +184,37 @@ public class BearyChatSendStep extends AbstractStepImpl {
             String attachmentText = step.getAttachmentText();
             Boolean failOnError = step.isFailOnError();
 
-            JSONObject data = buildData(message, title, attachmentText, notifition, url, color);
+            BearyChatPayload payload = buildData(message, title, attachmentText, notifition, url, color);
+            payload.truncate(bearychatDesc.getMaxPayloadBytes());
 
             listener.getLogger().println(Messages.BearyChatSendStepConfig(webhook, channel));
 
+            // keyed on what is posted rather than on the step, so that a step run again by
+            // retry {} or a replayed stage does not post the same message a second time
+            IdempotencyCache idempotencyCache = IdempotencyCache.get();
+            long key = 0;
+            if (run != null) {
+                key = IdempotencyCache.key(run.getParent().getFullName(), String.valueOf(run.getNumber()),
+                        String.valueOf(run.getTimeInMillis()), "step", webhook, channel, payload.toString());
+                if (!idempotencyCache.claim(key, System.currentTimeMillis())) {
+                    listener.getLogger().println(Messages.NotificationDuplicate());
+                    return null;
+                }
+            }
+
             BearyChatService bearychatService = getBearyChatService(webhook, channel);
-            boolean publishSuccess = bearychatService.publish(data);
+            boolean publishSuccess;
+            if (bearychatService instanceof StandardBearyChatService) {
+                StandardBearyChatService standardService = (StandardBearyChatService) bearychatService;
+                standardService.setPayloadFormat(bearychatDesc.getPayloadFormat());
+                standardService.setIdempotencyKey(key);
+                publishSuccess = standardService.publish(payload);
+            } else {
+                publishSuccess = bearychatService.publish(payload.toJSON());
+            }
+            if (!publishSuccess && key != 0) {
+                idempotencyCache.release(key);
+            }
 
             if (!publishSuccess && failOnError) {
                 throw new AbortException(Messages.NotificationFailed());
@@ -0,0 +1,87 @@
+package jenkins.plugins.bearychat;
+
+import java.util.List;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs real builds that notify a {@link FakeBearyChatServer} through {@link ActiveNotifier}.
+ */
+public class ActiveNotifierIntegrationTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private FakeBearyChatServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBearyChatServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    // job names are unique per test, the idempotency cache outlives a JenkinsRule
+    private FreeStyleProject createProject(String name, boolean notifyOnStarting) throws Exception {
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject(name);
+        project.getPublishersList().add(new BearyChatNotifier(server.getWebhook(), "#ci",
+                jenkinsRule.getURL().toString(), notifyOnStarting, false, true, false, true, true, true, false,
+                null, null));
+        return project;
+    }
+
+    @Test
+    public void startedAndCompletedNotificationsArrive() throws Exception {
+        FreeStyleProject project = createProject("notifier-started-completed", true);
+        jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+
+        List<FakeBearyChatServer.ReceivedPost> posts = server.awaitPosts(2, 30000);
+        for (FakeBearyChatServer.ReceivedPost post : posts) {
+            assertTrue(post.getPayload().getString("text").contains(project.getDisplayName()));
+            assertEquals("#ci", post.getPayload().getString("channel"));
+        }
+        assertFalse(posts.get(0).getHeader("X-Idempotency-Key").equals(posts.get(1).getHeader("X-Idempotency-Key")));
+    }
+
+    @Test
+    public void failedPostsAreRetriedWithTheSameKey() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.tooManyRequests(0), FakeBearyChatServer.Fault.reset());
+        FreeStyleProject project = createProject("notifier-retried", false);
+        jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+
+        List<FakeBearyChatServer.ReceivedPost> posts = server.awaitPosts(3, 30000);
+        String key = posts.get(0).getHeader("X-Idempotency-Key");
+        String text = posts.get(0).getPayload().getString("text");
+        for (FakeBearyChatServer.ReceivedPost post : posts) {
+            assertEquals(key, post.getHeader("X-Idempotency-Key"));
+            assertEquals(text, post.getPayload().getString("text"));
+        }
+        Thread.sleep(1000);
+        assertEquals(3, server.getReceived().size());
+    }
+
+    /**
+     * Delivery happens off the build thread, so a slow webhook does not make the build slower.
+     */
+    @Test
+    public void slowWebhookDoesNotHoldTheBuild() throws Exception {
+        server.setLatency(FakeBearyChatServer.Latency.fixed(5000));
+        FreeStyleProject project = createProject("notifier-slow-webhook", true);
+        FreeStyleBuild build = jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+        assertTrue(build.getDuration() < 5000);
+        server.awaitPosts(2, 30000);
+    }
+}
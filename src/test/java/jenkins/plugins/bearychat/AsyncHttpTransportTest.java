@@ -0,0 +1,112 @@
+package jenkins.plugins.bearychat;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncHttpTransportTest {
+
+    private static final long RESPONSE_DELAY_MILLIS = 200;
+
+    /**
+     * Slow posts overlap on a single I/O thread instead of queueing behind each other.
+     */
+    @Test(timeout = 20000)
+    public void manyPostsInFlightOnOneThread() throws Exception {
+        FakeBearyChatServer server = new FakeBearyChatServer()
+                .setLatency(FakeBearyChatServer.Latency.fixed(RESPONSE_DELAY_MILLIS));
+        AsyncHttpTransport transport = new AsyncHttpTransport(1, 100, TimeoutPolicy.defaults(), null);
+        try {
+            String url = server.getWebhook();
+            List<ListenableFuture<DeliveryResult>> results = new ArrayList<ListenableFuture<DeliveryResult>>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 50; i++) {
+                results.add(transport.post(new TransportRequest(url, ("payload=" + i).getBytes("UTF-8"),
+                        "application/x-www-form-urlencoded; charset=UTF-8")));
+            }
+            assertTrue(transport.getInFlight() > 1);
+            for (ListenableFuture<DeliveryResult> result : results) {
+                assertTrue(result.get().isSuccess());
+            }
+            // one after the other this would take 50 delays
+            assertTrue(System.currentTimeMillis() - start < 10 * RESPONSE_DELAY_MILLIS);
+            assertEquals(0, transport.getInFlight());
+        } finally {
+            transport.close();
+            server.close();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void retryAfterIsPassedOn() throws Exception {
+        FakeBearyChatServer server = new FakeBearyChatServer()
+                .setDefaultFault(FakeBearyChatServer.Fault.tooManyRequests(3));
+        AsyncHttpTransport transport = new AsyncHttpTransport(1, 10, TimeoutPolicy.defaults(), null);
+        try {
+            DeliveryResult result = transport.post(new TransportRequest(server.getWebhook(),
+                    new byte[0], "application/json; charset=UTF-8")).get();
+            assertEquals(429, result.getStatusCode());
+            assertTrue(result.isRetryable());
+            assertEquals(3000, result.getRetryAfterMillis());
+        } finally {
+            transport.close();
+            server.close();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void refusedConnectionIsRetryable() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+        AsyncHttpTransport transport = new AsyncHttpTransport(1, 10, TimeoutPolicy.defaults(), null);
+        try {
+            DeliveryResult result = transport.post(new TransportRequest("http://127.0.0.1:" + port + "/hook",
+                    new byte[0], "application/json; charset=UTF-8")).get();
+            assertFalse(result.isSuccess());
+            assertTrue(result.isRetryable());
+        } finally {
+            transport.close();
+        }
+    }
+
+    /**
+     * The gzip fallback is chained on the future, so it works the same on either transport.
+     */
+    @Test
+    public void serviceFallsBackFromGzipThroughTheTransport() throws Exception {
+        final List<String> encodings = new ArrayList<String>();
+        StandardBearyChatService service = new StandardBearyChatService("http://gzip-async.example.com/hook", "general") {
+            @Override
+            protected BearyChatTransport getTransport() {
+                return new BearyChatTransport() {
+                    public ListenableFuture<DeliveryResult> post(TransportRequest request) {
+                        String encoding = request.getHeaders().get("Content-Encoding");
+                        encodings.add(String.valueOf(encoding));
+                        return Futures.immediateFuture(DeliveryResult.fromStatus(encoding == null ? 200 : 415, null, ""));
+                    }
+
+                    public int getInFlight() {
+                        return 0;
+                    }
+
+                    public void close() {
+                    }
+                };
+            }
+        };
+        service.setPayloadFormat(PayloadFormat.JSON_GZIP);
+        assertTrue(service.sendAsync(new BearyChatPayload("message", null)).get().isSuccess());
+        assertEquals(2, encodings.size());
+        assertEquals("gzip", encodings.get(0));
+        assertEquals("null", encodings.get(1));
+    }
+}
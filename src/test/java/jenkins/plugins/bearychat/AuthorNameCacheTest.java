@@ -0,0 +1,115 @@
+package jenkins.plugins.bearychat;
+
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AuthorNameCacheTest {
+
+    private static class ManualClockCache extends AuthorNameCache {
+
+        long now;
+
+        ManualClockCache(long ttlMillis, long negativeTtlMillis, int maxEntries) {
+            super(ttlMillis, negativeTtlMillis, maxEntries);
+        }
+
+        @Override
+        protected long now() {
+            return now;
+        }
+    }
+
+    private static User user(String id, String displayName) {
+        User user = mock(User.class);
+        when(user.getId()).thenReturn(id);
+        when(user.getDisplayName()).thenReturn(displayName);
+        return user;
+    }
+
+    private static ChangeLogSet.Entry entry(String commitId, User author) {
+        ChangeLogSet.Entry entry = mock(ChangeLogSet.Entry.class);
+        when(entry.getCommitId()).thenReturn(commitId);
+        when(entry.getAuthor()).thenReturn(author);
+        return entry;
+    }
+
+    @Test
+    public void resolvesOncePerCommitWithinTheTtl() {
+        ManualClockCache cache = new ManualClockCache(1000, 100, 10);
+        ChangeLogSet.Entry entry = entry("abc123", user("alice", "Alice"));
+        assertEquals("Alice", cache.getDisplayName("app", entry));
+        cache.now = 999;
+        assertEquals("Alice", cache.getDisplayName("app", entry));
+        verify(entry, times(1)).getAuthor();
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.now = 1000;
+        cache.getDisplayName("app", entry);
+        verify(entry, times(2)).getAuthor();
+    }
+
+    @Test
+    public void unresolvedAuthorsAreCachedForTheNegativeTtl() {
+        ManualClockCache cache = new ManualClockCache(1000, 100, 10);
+        ChangeLogSet.Entry entry = entry("abc123", null);
+        when(entry.getAuthor()).thenThrow(new IllegalStateException("realm is down"));
+        assertEquals(AuthorNameCache.UNKNOWN, cache.getDisplayName("app", entry));
+        cache.now = 99;
+        assertEquals(AuthorNameCache.UNKNOWN, cache.getDisplayName("app", entry));
+        verify(entry, times(1)).getAuthor();
+
+        cache.now = 100;
+        cache.getDisplayName("app", entry);
+        verify(entry, times(2)).getAuthor();
+    }
+
+    @Test
+    public void savedUsersAndEvictedCommitsAreResolvedAgain() {
+        ManualClockCache cache = new ManualClockCache(1000, 100, 2);
+        ChangeLogSet.Entry alice = entry("a", user("alice", "Alice"));
+        ChangeLogSet.Entry bob = entry("b", user("bob", "Bob"));
+        cache.getDisplayName("app", alice);
+        cache.getDisplayName("app", bob);
+        cache.invalidate("alice");
+        assertEquals(1, cache.getSize());
+        cache.getDisplayName("app", alice);
+        verify(alice, times(2)).getAuthor();
+
+        cache.getDisplayName("app", entry("c", user("carol", "Carol")));
+        assertEquals(2, cache.getSize());
+        cache.getDisplayName("app", bob);
+        verify(bob, times(2)).getAuthor();
+    }
+
+    @Test
+    public void revisionNumbersAreKeptApartPerJob() {
+        ManualClockCache cache = new ManualClockCache(1000, 100, 10);
+        assertEquals("Alice", cache.getDisplayName("app", entry("1234", user("alice", "Alice"))));
+        assertEquals("Bob", cache.getDisplayName("tools", entry("1234", user("bob", "Bob"))));
+        assertEquals(0, cache.getHits());
+
+        String sha = "3f786850e387550fdab836ed7e6dc881de23001b";
+        cache.getDisplayName("app", entry(sha, user("carol", "Carol")));
+        assertEquals("Carol", cache.getDisplayName("tools", entry(sha, user("carol", "Carol"))));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void entriesWithoutCommitIdsAreNotCached() {
+        ManualClockCache cache = new ManualClockCache(1000, 100, 10);
+        ChangeLogSet.Entry entry = entry(null, user("alice", "Alice"));
+        assertEquals("Alice", cache.getDisplayName("app", entry));
+        assertEquals("Alice", cache.getDisplayName("app", entry));
+        assertEquals("Alice", cache.getDisplayName(null, entry("1234", user("alice", "Alice"))));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getHits() + cache.getMisses());
+    }
+}
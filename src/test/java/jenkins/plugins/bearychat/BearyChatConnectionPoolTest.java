@@ -0,0 +1,76 @@
+package jenkins.plugins.bearychat;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BearyChatConnectionPoolTest {
+
+    /**
+     * Every service instance should share a single pooled client.
+     */
+    @Test
+    public void servicesShareTheSameClient() {
+        StandardBearyChatService first = new StandardBearyChatService("http://localhost/hook", "general");
+        StandardBearyChatService second = new StandardBearyChatService("http://localhost/other", "random");
+        HttpClient client = first.getHttpClient();
+        assertSame(client, second.getHttpClient());
+        assertSame(BearyChatConnectionPool.get().getConnectionManager(), client.getHttpConnectionManager());
+    }
+
+    @Test
+    public void poolLimitsAreApplied() {
+        BearyChatConnectionPool pool = BearyChatConnectionPool.get();
+        assertEquals(BearyChatConnectionPool.MAX_CONNECTIONS_PER_HOST, pool.getMaxConnectionsPerHost());
+        assertEquals(BearyChatConnectionPool.MAX_TOTAL_CONNECTIONS, pool.getMaxTotalConnections());
+    }
+
+    /**
+     * Connections opened by a warm-up are the ones the next posts use.
+     */
+    @Test(timeout = 20000)
+    public void warmedConnectionsAreReused() throws Exception {
+        FakeBearyChatServer server = new FakeBearyChatServer();
+        try {
+            String webhook = server.getWebhook();
+            BearyChatConnectionPool pool = BearyChatConnectionPool.get();
+            assertTrue(pool.warmUp(webhook));
+            // the server counts a connection only once it gets round to accepting it
+            while (server.getConnectionCount() < BearyChatConnectionPool.WARM_CONNECTIONS_PER_HOST) {
+                Thread.sleep(10);
+            }
+            // a second warm-up finds the connections open already
+            assertTrue(pool.warmUp(webhook));
+
+            StandardBearyChatService service = new StandardBearyChatService(webhook, "general");
+            for (int i = 0; i < 3; i++) {
+                assertTrue(service.send(new BearyChatPayload("message " + i, null)).isSuccess());
+            }
+            assertEquals(BearyChatConnectionPool.WARM_CONNECTIONS_PER_HOST, server.getConnectionCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * A connection opened ahead of time would skip the CONNECT of a proxy tunnel.
+     */
+    @Test(timeout = 20000)
+    public void nothingIsWarmedUpBehindAProxy() throws Exception {
+        FakeBearyChatServer server = new FakeBearyChatServer();
+        try {
+            String webhook = server.getWebhook();
+            BearyChatConnectionPool pool = BearyChatConnectionPool.get();
+            pool.getHostConfiguration(webhook).setProxy("127.0.0.1", server.getPort());
+            assertFalse(pool.warmUp(webhook));
+            Thread.sleep(200);
+            assertEquals(0, server.getConnectionCount());
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BearyChatDeliveryQueueTest {
+
+    private static QueuedNotification notification() {
+        return new QueuedNotification("http://localhost/hook", "general", new BearyChatPayload("message", null));
+    }
+
+    /**
+     * Submitting must return immediately even while the worker is stuck on a slow endpoint,
+     * and overflow must be dropped instead of blocking the caller.
+     */
+    @Test
+    public void submitNeverBlocksAndDropsOverflow() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(2);
+        BearyChatDeliveryQueue queue = new BearyChatDeliveryQueue() {
+            @Override
+            void deliver(QueuedNotification notification) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                delivered.countDown();
+            }
+        };
+        queue.configure(1, 1);
+
+        assertTrue(queue.submit(notification()));
+        // wait until the single worker has picked up the first notification
+        while (queue.getActiveWorkers() == 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(queue.submit(notification()));
+        assertFalse(queue.submit(notification()));
+        assertEquals(1, queue.getRejected());
+
+        release.countDown();
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Notifications held back by a webhook's limits still count against the queue's
+     * capacity, whatever does not fit is dropped like a notification the queue has no room for.
+     */
+    @Test(timeout = 30000)
+    public void heldNotificationsCountAgainstTheCapacity() throws Exception {
+        FakeBearyChatServer server = new FakeBearyChatServer().setLatency(FakeBearyChatServer.Latency.fixed(1000));
+        try {
+            BearyChatDeliveryQueue queue = new BearyChatDeliveryQueue();
+            // one worker posts while the other finds the webhook busy
+            queue.configure(2, 2);
+            queue.getRateLimiters().configure(600000, 1000, 1);
+            for (int i = 0; i < 5; i++) {
+                QueuedNotification notification = new QueuedNotification(server.getWebhook(), "general",
+                        new BearyChatPayload("message " + i, null));
+                // wait for the worker to take the last one, it is then either posting, held or dropped
+                while (queue.getDepth() > 0) {
+                    Thread.sleep(5);
+                }
+                assertTrue(queue.submit(notification));
+                assertTrue(queue.getRateLimiters().getHeld() <= 2);
+            }
+            long deadline = System.currentTimeMillis() + 20000;
+            while (server.getReceived().size() + queue.getRejected() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(3, server.getReceived().size());
+            assertEquals(2, queue.getRejected());
+            assertTrue(queue.getRateLimiters().getWaited() > 0);
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package jenkins.plugins.bearychat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+import hudson.scm.ChangeLogSet;
+import hudson.util.NullStream;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.powermock.reflect.Whitebox;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * End-to-end load test: fires concurrent synthetic build starts and completions
+ * through {@link BearyChatNotifier#prebuild} and {@link BearyChatListener#onCompleted}
+ * and waits for every notification to reach a {@link FakeBearyChatServer}.
+ *
+ * Skipped unless {@code -Dbearychat.loadtest=true}. The {@code bearychat.loadtest.*}
+ * properties below size the run; the {@code max*} and {@code min*} ones turn the
+ * report into a regression gate. Results are also written to
+ * {@code target/bearychat-loadtest.json}.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BearyChatLoadTest {
+
+    private static final String PREFIX = "bearychat.loadtest.";
+
+    private static final int BUILDS = Integer.getInteger(PREFIX + "builds", 2000);
+    private static final int THREADS = Integer.getInteger(PREFIX + "threads", 16);
+    private static final int LATENCY_MILLIS = Integer.getInteger(PREFIX + "latencyMillis", 20);
+    private static final int WORKERS = Integer.getInteger(PREFIX + "workers", BearyChatDeliveryQueue.DEFAULT_WORKERS);
+    private static final String TRANSPORT = System.getProperty(PREFIX + "transport", TransportType.HTTP_CLIENT.name());
+    private static final long TIMEOUT_SECONDS = Long.getLong(PREFIX + "timeoutSeconds", 600L);
+
+    private static final double MIN_THROUGHPUT = Double.parseDouble(System.getProperty(PREFIX + "minThroughput", "0"));
+    private static final long MAX_P99_MILLIS = Long.getLong(PREFIX + "maxP99Millis", 0L);
+    private static final long MAX_HOLD_P99_MILLIS = Long.getLong(PREFIX + "maxHoldP99Millis", 0L);
+    private static final long MAX_HEAP_GROWTH_MB = Long.getLong(PREFIX + "maxHeapGrowthMb", 0L);
+
+    private final JenkinsRule jenkinsRule = new JenkinsRule();
+
+    // checked before Jenkins is started, so a skipped run costs nothing
+    @Rule
+    public RuleChain rules = RuleChain.outerRule(new TestRule() {
+        public Statement apply(final Statement base, Description description) {
+            return new Statement() {
+                @Override
+                public void evaluate() throws Throwable {
+                    Assume.assumeTrue(Boolean.getBoolean("bearychat.loadtest"));
+                    base.evaluate();
+                }
+            };
+        }
+    }).around(jenkinsRule);
+
+    private FakeBearyChatServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBearyChatServer().setLatency(FakeBearyChatServer.Latency.fixed(LATENCY_MILLIS));
+        BearyChatDeliveryQueue.get().configure(WORKERS, Math.max(BearyChatDeliveryQueue.DEFAULT_CAPACITY, BUILDS * 2));
+        // the load is meant to hit the plugin, not its rate limiter
+        BearyChatDeliveryQueue.get().getRateLimiters().configure(1000000, 1000000, RateLimiterRegistry.DEFAULT_MAX_CONCURRENCY);
+        BearyChatTransports.get().configure(TransportType.fromName(TRANSPORT, TransportType.HTTP_CLIENT),
+                AsyncHttpTransport.DEFAULT_IO_THREADS, AsyncHttpTransport.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void sustainedBuildCompletions() throws Exception {
+        final FreeStyleProject project = jenkinsRule.createFreeStyleProject("bearychat-load-" + System.currentTimeMillis());
+        project.getPublishersList().add(new BearyChatNotifier(server.getWebhook(), "#load",
+                jenkinsRule.getURL().toString(), true, true, true, true, true, true, true, false, null, null));
+        final BearyChatNotifier notifier = project.getPublishersList().get(BearyChatNotifier.class);
+        final BearyChatListener runListener = new BearyChatListener();
+        final BuildListener buildListener = new StreamBuildListener(new NullStream());
+
+        List<AbstractBuild> builds = new ArrayList<AbstractBuild>(BUILDS);
+        final String[] startedKeys = new String[BUILDS];
+        final String[] completedKeys = new String[BUILDS];
+        for (int i = 0; i < BUILDS; i++) {
+            builds.add(syntheticBuild(project, i + 1));
+            startedKeys[i] = key(project, i + 1, "started");
+            completedKeys[i] = key(project, i + 1, "completed");
+        }
+
+        final Map<String, Long> sentNanos = new ConcurrentHashMap<String, Long>(BUILDS * 4);
+        final long[] holdNanos = new long[BUILDS];
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeap(memory);
+
+        ExecutorService executors = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch done = new CountDownLatch(BUILDS);
+        long start = System.nanoTime();
+        for (int i = 0; i < BUILDS; i++) {
+            final int index = i;
+            final AbstractBuild build = builds.get(i);
+            executors.execute(new Runnable() {
+                public void run() {
+                    try {
+                        // what a Jenkins executor spends in the plugin: the start notification and the completion listener
+                        long began = System.nanoTime();
+                        sentNanos.put(startedKeys[index], began);
+                        notifier.prebuild(build, buildListener);
+                        long completed = System.nanoTime();
+                        sentNanos.put(completedKeys[index], completed);
+                        runListener.onCompleted(build, buildListener);
+                        holdNanos[index] = System.nanoTime() - began;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue("Builds did not finish in time", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long submitted = System.nanoTime();
+        List<FakeBearyChatServer.ReceivedPost> posts = server.awaitPosts(BUILDS * 2, TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        long delivered = System.nanoTime();
+        executors.shutdown();
+        // includes the posts the fake server keeps, a few hundred bytes each
+        long heapAfter = usedHeap(memory);
+
+        long[] latencies = new long[posts.size()];
+        int matched = 0;
+        for (FakeBearyChatServer.ReceivedPost post : posts) {
+            Long sent = sentNanos.get(post.getHeader("X-Idempotency-Key"));
+            if (sent != null) {
+                latencies[matched++] = post.getReceivedNanos() - sent;
+            }
+        }
+        latencies = Arrays.copyOf(latencies, matched);
+        Arrays.sort(latencies);
+        Arrays.sort(holdNanos);
+
+        double seconds = (delivered - start) / 1e9;
+        JSONObject report = new JSONObject();
+        report.put("builds", BUILDS);
+        report.put("threads", THREADS);
+        report.put("workers", WORKERS);
+        report.put("transport", TRANSPORT);
+        report.put("webhookLatencyMillis", LATENCY_MILLIS);
+        report.put("posts", posts.size());
+        report.put("submitSeconds", (submitted - start) / 1e9);
+        report.put("totalSeconds", seconds);
+        report.put("throughputBuildsPerSecond", BUILDS / seconds);
+        report.put("latencyP50Millis", millis(quantile(latencies, 0.5)));
+        report.put("latencyP99Millis", millis(quantile(latencies, 0.99)));
+        report.put("latencyP999Millis", millis(quantile(latencies, 0.999)));
+        report.put("holdP50Millis", millis(quantile(holdNanos, 0.5)));
+        report.put("holdP99Millis", millis(quantile(holdNanos, 0.99)));
+        report.put("holdP999Millis", millis(quantile(holdNanos, 0.999)));
+        report.put("heapGrowthMb", (heapAfter - heapBefore) / (1024.0 * 1024.0));
+        System.out.println("BearyChat load test: " + report.toString(2));
+        write(report);
+
+        assertTrue("Only " + matched + " of " + posts.size() + " posts matched a build", matched == BUILDS * 2);
+        if (MIN_THROUGHPUT > 0) {
+            assertTrue("Throughput below " + MIN_THROUGHPUT + " builds/s", BUILDS / seconds >= MIN_THROUGHPUT);
+        }
+        if (MAX_P99_MILLIS > 0) {
+            assertTrue("p99 latency above " + MAX_P99_MILLIS + " ms", millis(quantile(latencies, 0.99)) <= MAX_P99_MILLIS);
+        }
+        if (MAX_HOLD_P99_MILLIS > 0) {
+            assertTrue("p99 executor hold time above " + MAX_HOLD_P99_MILLIS + " ms",
+                    millis(quantile(holdNanos, 0.99)) <= MAX_HOLD_P99_MILLIS);
+        }
+        if (MAX_HEAP_GROWTH_MB > 0) {
+            assertTrue("Heap grew by more than " + MAX_HEAP_GROWTH_MB + " MB",
+                    heapAfter - heapBefore <= MAX_HEAP_GROWTH_MB * 1024 * 1024);
+        }
+    }
+
+    /**
+     * A completed build of the project that never ran: just enough of a build for the notifier.
+     */
+    private static AbstractBuild syntheticBuild(FreeStyleProject project, int number) throws Exception {
+        AbstractBuild build = mock(AbstractBuild.class);
+        Whitebox.setInternalState(build, "project", project, Run.class);
+        when(build.getParent()).thenReturn(project);
+        when(build.getNumber()).thenReturn(number);
+        when(build.getId()).thenReturn(String.valueOf(number));
+        when(build.getDisplayName()).thenReturn("#" + number);
+        when(build.getResult()).thenReturn(number % 10 == 0 ? Result.FAILURE : Result.SUCCESS);
+        when(build.getDuration()).thenReturn(60000L);
+        when(build.getEnvironment(any(TaskListener.class))).thenReturn(new EnvVars());
+        when(build.getChangeSet()).thenReturn(ChangeLogSet.createEmpty(build));
+        return build;
+    }
+
+    /**
+     * @return the {@code X-Idempotency-Key} the notification of a build phase is posted with
+     */
+    private static String key(FreeStyleProject project, int number, String phase) {
+        return Long.toHexString(IdempotencyCache.key(project.getFullName(), String.valueOf(number), phase, "#load"));
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long quantile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void write(JSONObject report) throws Exception {
+        File target = new File("target");
+        if (!target.isDirectory()) {
+            return;
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(target, "bearychat-loadtest.json")), "UTF-8");
+        try {
+            out.write(report.toString(2));
+        } finally {
+            out.close();
+        }
+    }
+}
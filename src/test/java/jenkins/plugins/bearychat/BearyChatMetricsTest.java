@@ -0,0 +1,108 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.CountDownLatch;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BearyChatMetricsTest {
+
+    private static final String WEBHOOK = "https://hook.bearychat.com/=bw8NI/incoming/0123456789abcdef";
+
+    @Test
+    public void histogramBucketsByPowersOfTwo() {
+        assertEquals(0, LogHistogram.bucket(0));
+        assertEquals(0, LogHistogram.bucket(1));
+        assertEquals(1, LogHistogram.bucket(2));
+        assertEquals(2, LogHistogram.bucket(3));
+        assertEquals(10, LogHistogram.bucket(1024));
+        assertEquals(11, LogHistogram.bucket(1025));
+        assertEquals(LogHistogram.BUCKETS - 1, LogHistogram.bucket(Long.MAX_VALUE));
+
+        LogHistogram histogram = new LogHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(64, histogram.getQuantile(0.5));
+        assertEquals(100, histogram.getQuantile(0.99));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        final LogHistogram histogram = new LogHistogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i % 500);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(499, histogram.getMax());
+    }
+
+    @Test
+    public void countsAttemptsByStatusClassUnderTheMaskedWebhook() {
+        BearyChatMetrics metrics = new BearyChatMetrics();
+        BearyChatMetrics.WebhookMetrics hook = metrics.forWebhook(WEBHOOK);
+        hook.recordAttempt(200, 120, 900);
+        hook.recordAttempt(429, 30, 900);
+        hook.recordAttempt(503, 40, 900);
+        hook.recordAttempt(0, 5000, 900);
+
+        assertEquals(4, hook.getAttempts());
+        assertEquals(1, hook.getSuccesses());
+        assertEquals(1, hook.getFailures("4xx"));
+        assertEquals(1, hook.getFailures("5xx"));
+        assertEquals(1, hook.getFailures("error"));
+        assertEquals(1, metrics.getWebhooks().size());
+        assertTrue(!metrics.getWebhooks().keySet().iterator().next().contains("0123456789ab"));
+    }
+
+    @Test
+    public void rendersJsonAndPrometheusText() {
+        BearyChatMetrics metrics = new BearyChatMetrics();
+        BearyChatMetrics.WebhookMetrics hook = metrics.forWebhook(WEBHOOK);
+        hook.recordAttempt(200, 3, 100);
+        hook.recordAttempt(200, 100, 100);
+        hook.recordDelivered(250);
+        BearyChatDeliveryQueue queue = new BearyChatDeliveryQueue();
+        JSONObject json = metrics.toJSON(queue);
+        assertEquals(0, json.getJSONObject("queue").getInt("queueDepth"));
+        JSONObject webhook = json.getJSONObject("webhooks").getJSONObject(Helper.maskWebhook(WEBHOOK));
+        assertEquals(2, webhook.getInt("successes"));
+        assertEquals(2, webhook.getJSONObject("sendMillis").getInt("count"));
+        assertTrue(json.getJSONObject("authorNames").has("hitRate"));
+
+        String text = metrics.toPrometheus(queue);
+        String labels = "webhook=\"" + Helper.maskWebhook(WEBHOOK) + "\"";
+        assertTrue(text, text.contains("# TYPE bearychat_send_milliseconds histogram\n"));
+        assertTrue(text, text.contains("bearychat_send_milliseconds_bucket{" + labels + ",le=\"4\"} 1\n"));
+        assertTrue(text, text.contains("bearychat_send_milliseconds_bucket{" + labels + ",le=\"128\"} 2\n"));
+        assertTrue(text, text.contains("bearychat_send_milliseconds_bucket{" + labels + ",le=\"+Inf\"} 2\n"));
+        assertTrue(text, text.contains("bearychat_send_milliseconds_sum{" + labels + "} 103\n"));
+        assertTrue(text, text.contains("bearychat_failures_total{" + labels + ",status=\"5xx\"} 0\n"));
+        assertTrue(text, text.contains("# TYPE bearychat_author_cache_hits_total counter\n"));
+    }
+}
@@ -0,0 +1,182 @@
+package jenkins.plugins.bearychat;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BearyChatOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static QueuedNotification notification(String text) {
+        return new QueuedNotification("http://localhost/hook", "general", new BearyChatPayload(text, null));
+    }
+
+    /**
+     * Only entries that were never acknowledged come back after a restart.
+     */
+    @Test
+    public void replaysUnacknowledgedEntries() throws Exception {
+        File dir = folder.newFolder("outbox");
+        BearyChatOutbox outbox = new BearyChatOutbox(dir);
+        outbox.open();
+        QueuedNotification first = notification("first");
+        QueuedNotification second = notification("second");
+        QueuedNotification third = notification("third");
+        outbox.append(first);
+        outbox.append(second);
+        outbox.append(third);
+        outbox.ack(first);
+        outbox.ack(third);
+        assertEquals(1, outbox.getPending());
+        outbox.close();
+
+        final List<String> replayed = new CopyOnWriteArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        BearyChatDeliveryQueue queue = new BearyChatDeliveryQueue() {
+            @Override
+            void deliver(QueuedNotification notification) {
+                replayed.add(notification.getPayload().getText());
+                done.countDown();
+            }
+        };
+        BearyChatOutbox restarted = new BearyChatOutbox(dir);
+        restarted.replay(restarted.open(), queue);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, replayed.size());
+        assertEquals("second", replayed.get(0));
+        restarted.close();
+    }
+
+    /**
+     * Segments whose entries have all been delivered are removed on replay.
+     */
+    @Test
+    public void acknowledgedSegmentsAreDeleted() throws Exception {
+        File dir = folder.newFolder("outbox");
+        BearyChatOutbox outbox = new BearyChatOutbox(dir);
+        outbox.open();
+        QueuedNotification only = notification("only");
+        outbox.append(only);
+        outbox.ack(only);
+        outbox.close();
+
+        BearyChatOutbox restarted = new BearyChatOutbox(dir);
+        restarted.replay(restarted.open(), new BearyChatDeliveryQueue());
+        assertEquals(1, dir.list().length);
+        assertEquals(0, restarted.getPending());
+        restarted.close();
+    }
+
+    /**
+     * A segment that cannot be opened pauses journaling until a later append manages to rotate.
+     */
+    @Test
+    public void failedRotationIsRetried() throws Exception {
+        File dir = folder.newFolder("outbox");
+        // every record fills a segment
+        BearyChatOutbox outbox = new BearyChatOutbox(dir, 1);
+        outbox.open();
+        File blocked = new File(dir, "segment-0000000002.log");
+        assertTrue(blocked.mkdir());
+        QueuedNotification first = notification("first");
+        outbox.append(first);
+        QueuedNotification lost = notification("lost");
+        outbox.append(lost);
+        assertTrue(lost.getJournalId() < 0);
+
+        assertTrue(blocked.delete());
+        QueuedNotification resumed = notification("resumed");
+        outbox.append(resumed);
+        assertTrue(resumed.getJournalId() >= 0);
+        outbox.ack(first);
+        assertEquals(1, outbox.getPending());
+        outbox.close();
+
+        final List<String> replayed = new CopyOnWriteArrayList<String>();
+        BearyChatDeliveryQueue queue = new BearyChatDeliveryQueue() {
+            @Override
+            void deliver(QueuedNotification notification) {
+                replayed.add(notification.getPayload().getText());
+            }
+        };
+        BearyChatOutbox restarted = new BearyChatOutbox(dir);
+        restarted.replay(restarted.open(), queue);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (replayed.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("[resumed]", replayed.toString());
+        restarted.close();
+    }
+
+    /**
+     * Acks of an older segment share one open writer and still replay on their own.
+     */
+    @Test
+    public void acksOfOlderSegmentsAreKeptNextToTheirEntries() throws Exception {
+        File dir = folder.newFolder("outbox");
+        BearyChatOutbox outbox = new BearyChatOutbox(dir, 1);
+        outbox.open();
+        QueuedNotification[] notifications = new QueuedNotification[3];
+        for (int i = 0; i < notifications.length; i++) {
+            notifications[i] = notification("n" + i);
+            outbox.append(notifications[i]);
+        }
+        assertEquals(4, outbox.getSegments());
+        for (QueuedNotification notification : notifications) {
+            outbox.ack(notification);
+        }
+        assertEquals(0, outbox.getPending());
+        assertEquals(1, outbox.getSegments());
+        assertEquals(1, dir.list().length);
+        outbox.close();
+    }
+
+    /**
+     * A record without an id or data is skipped, the rest of its segment still replays.
+     */
+    @Test
+    public void corruptRecordsAreSkipped() throws Exception {
+        File dir = folder.newFolder("outbox");
+        BearyChatOutbox outbox = new BearyChatOutbox(dir);
+        outbox.open();
+        outbox.append(notification("first"));
+        outbox.append(notification("second"));
+        outbox.close();
+
+        File segment = dir.listFiles()[0];
+        Charset utf8 = Charset.forName("UTF-8");
+        List<String> lines = Files.readAllLines(segment.toPath(), utf8);
+        lines.add(1, "{\"op\":\"put\"}");
+        lines.add(2, "{\"op\":\"put\",\"id\":99}");
+        Files.write(segment.toPath(), lines, utf8);
+
+        final List<String> replayed = new CopyOnWriteArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(2);
+        BearyChatDeliveryQueue queue = new BearyChatDeliveryQueue() {
+            @Override
+            void deliver(QueuedNotification notification) {
+                replayed.add(notification.getPayload().getText());
+                done.countDown();
+            }
+        };
+        BearyChatOutbox restarted = new BearyChatOutbox(dir);
+        restarted.replay(restarted.open(), queue);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("[first, second]", replayed.toString());
+        restarted.close();
+    }
+}
@@ -0,0 +1,76 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+
+import hudson.EnvVars;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BuildEnvironmentCacheTest {
+
+    private final BuildEnvironmentCache cache = new BuildEnvironmentCache();
+
+    private static Run build(String value) throws Exception {
+        EnvVars env = new EnvVars();
+        env.put("BRANCH", value);
+        Run build = mock(Run.class);
+        when(build.getEnvironment(any(TaskListener.class))).thenReturn(env);
+        return build;
+    }
+
+    @Test
+    public void environmentIsReadOncePerPhase() throws Exception {
+        Run build = build("master");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("master", cache.getEnvironment(build, "started", null).get("BRANCH"));
+        }
+        verify(build, times(1)).getEnvironment(any(TaskListener.class));
+
+        cache.getEnvironment(build, "completed", null);
+        cache.getEnvironment(build, "completed", null);
+        verify(build, times(2)).getEnvironment(any(TaskListener.class));
+    }
+
+    @Test
+    public void callersGetTheirOwnCopy() throws Exception {
+        Run build = build("master");
+        cache.getEnvironment(build, "started", null).put("BRANCH", "changed");
+        assertEquals("master", cache.getEnvironment(build, "started", null).get("BRANCH"));
+    }
+
+    @Test
+    public void invalidateDropsTheSnapshot() throws Exception {
+        Run build = build("master");
+        cache.getEnvironment(build, "completed", null);
+        assertEquals(1, cache.size());
+        cache.invalidate(build);
+        assertEquals(0, cache.size());
+        cache.getEnvironment(build, "completed", null);
+        verify(build, times(2)).getEnvironment(any(TaskListener.class));
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        Run build = mock(Run.class);
+        when(build.getEnvironment(any(TaskListener.class))).thenThrow(new IOException("agent gone"))
+                .thenReturn(new EnvVars());
+        try {
+            cache.getEnvironment(build, "started", null);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+        cache.getEnvironment(build, "started", null);
+        assertEquals(1, cache.size());
+    }
+}
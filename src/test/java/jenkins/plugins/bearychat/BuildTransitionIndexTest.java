@@ -0,0 +1,131 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BuildTransitionIndexTest {
+
+    private final BuildTransitionIndex index = new BuildTransitionIndex();
+    private final List<AbstractBuild> builds = new ArrayList<AbstractBuild>();
+    private AbstractProject project;
+
+    @Before
+    public void setUp() {
+        project = mock(AbstractProject.class);
+    }
+
+    private AbstractBuild build(Result result) {
+        AbstractBuild build = mock(AbstractBuild.class);
+        int number = builds.size() + 1;
+        when(build.getParent()).thenReturn(project);
+        when(build.getNumber()).thenReturn(number);
+        when(build.getResult()).thenReturn(result);
+        when(build.getStartTimeInMillis()).thenReturn(number * 60000L);
+        when(build.getDuration()).thenReturn(1000L);
+        if (!builds.isEmpty()) {
+            AbstractBuild previous = builds.get(builds.size() - 1);
+            when(build.getPreviousBuild()).thenReturn(previous);
+            Run success = previous.getResult() == Result.SUCCESS ? previous : previous.getPreviousSuccessfulBuild();
+            when(build.getPreviousSuccessfulBuild()).thenReturn(success);
+        }
+        builds.add(build);
+        return build;
+    }
+
+    /**
+     * What the listener does: look at the transition, then record the build.
+     */
+    private BuildTransition complete(AbstractBuild build) {
+        BuildTransition transition = index.getTransition(build);
+        index.record(build);
+        return transition;
+    }
+
+    @Test
+    public void transitionsFollowTheResults() {
+        assertEquals(BuildTransition.SUCCESS, complete(build(Result.SUCCESS)));
+        assertEquals(BuildTransition.FAILURE, complete(build(Result.FAILURE)));
+        assertEquals(BuildTransition.STILL_FAILING, complete(build(Result.FAILURE)));
+        assertEquals(BuildTransition.ABORTED, complete(build(Result.ABORTED)));
+        assertEquals(BuildTransition.BACK_TO_NORMAL, complete(build(Result.SUCCESS)));
+        assertEquals(BuildTransition.UNSTABLE, complete(build(Result.UNSTABLE)));
+        assertEquals(BuildTransition.BACK_TO_NORMAL, complete(build(Result.SUCCESS)));
+        assertEquals(BuildTransition.NOT_BUILT, complete(build(Result.NOT_BUILT)));
+    }
+
+    @Test
+    public void backToNormalNeedsAnEarlierSuccess() {
+        assertEquals(BuildTransition.FAILURE, complete(build(Result.FAILURE)));
+        assertEquals(BuildTransition.SUCCESS, complete(build(Result.SUCCESS)));
+    }
+
+    @Test
+    public void runningBuildIsStarting() {
+        AbstractBuild build = build(null);
+        when(build.isBuilding()).thenReturn(true);
+        assertEquals(BuildTransition.STARTING, index.getTransition(build));
+    }
+
+    @Test
+    public void abortedBuildsAreSkippedWithoutLoadingThem() {
+        complete(build(Result.SUCCESS));
+        complete(build(Result.FAILURE));
+        for (int i = 0; i < 50; i++) {
+            complete(build(Result.ABORTED));
+        }
+        AbstractBuild last = build(Result.SUCCESS);
+        assertEquals(BuildTransition.BACK_TO_NORMAL, complete(last));
+        verify(last, never()).getPreviousBuild();
+        verify(last, never()).getPreviousSuccessfulBuild();
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void historyIsWalkedOnceWhenTheIndexIsCold() {
+        build(Result.SUCCESS);
+        build(Result.FAILURE);
+        build(Result.ABORTED);
+        AbstractBuild fixed = build(Result.SUCCESS);
+
+        assertEquals(BuildTransition.BACK_TO_NORMAL, complete(fixed));
+        verify(fixed).getPreviousBuild();
+        BuildTransitionIndex.Previous previous = index.getPrevious(build(Result.SUCCESS));
+        assertEquals(Result.SUCCESS, previous.getResult());
+        assertEquals(4 * 60000L + 1000L, previous.getLastSuccessEnd());
+    }
+
+    @Test
+    public void gapsAreNotTrusted() {
+        complete(build(Result.FAILURE));
+        build(Result.SUCCESS); // completed while the index was not looking
+        AbstractBuild next = build(Result.FAILURE);
+        assertEquals(BuildTransition.FAILURE, complete(next));
+        verify(next).getPreviousBuild();
+    }
+
+    @Test
+    public void runningEarlierBuildIsNotCached() {
+        complete(build(Result.SUCCESS));
+        AbstractBuild running = build(null);
+        when(running.isBuilding()).thenReturn(true);
+        AbstractBuild later = build(Result.FAILURE);
+
+        assertEquals(Result.SUCCESS, index.getPrevious(later).getResult());
+        index.record(later);
+        assertEquals(0, index.size());
+        assertEquals(Result.SUCCESS, index.getPrevious(running).getResult());
+    }
+}
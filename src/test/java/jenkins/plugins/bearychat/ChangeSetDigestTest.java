@@ -0,0 +1,152 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import hudson.model.AbstractBuild;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class ChangeSetDigestTest {
+
+    private final List<AbstractBuild> builds = new ArrayList<AbstractBuild>();
+
+    @After
+    public void tearDown() {
+        for (AbstractBuild build : builds) {
+            ChangeSetDigest.invalidate(build);
+        }
+    }
+
+    private AbstractBuild build(int changes, int authors, boolean computed) {
+        List<Change> entries = new ArrayList<Change>();
+        for (int i = 0; i < changes; i++) {
+            User author = mock(User.class);
+            when(author.getDisplayName()).thenReturn("dev" + (i % authors));
+            entries.add(new Change("change " + i, author, Arrays.asList("change" + i + "/a", "change" + i + "/b")));
+        }
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getChangeSet()).thenReturn(new Changes(entries));
+        when(build.hasChangeSetComputed()).thenReturn(computed);
+        builds.add(build);
+        return build;
+    }
+
+    @Test
+    public void emptyChangeSet() {
+        ChangeSetDigest digest = ChangeSetDigest.of(build(0, 1, true));
+        assertTrue(digest.isEmpty());
+        assertEquals(0, digest.getFileCount());
+        assertEquals("", digest.getAuthors());
+        assertEquals("", digest.getCommitMessages());
+    }
+
+    @Test
+    public void digestSummarizesTheChanges() {
+        ChangeSetDigest digest = ChangeSetDigest.of(build(7, 3, true));
+        assertEquals(7, digest.getEntryCount());
+        assertEquals(14, digest.getFileCount());
+        assertEquals("dev0, dev1, dev2", digest.getAuthors());
+        assertEquals(ChangeSetDigest.MAX_COMMIT_MESSAGES, digest.getCommits().size());
+        assertEquals("- change 0 [dev0]\n- change 1 [dev1]\n- change 2 [dev2]\n- change 3 [dev0]\n"
+                + "- change 4 [dev1]\n2 more...", digest.getCommitMessages());
+    }
+
+    @Test
+    public void filesAreCountedOncePerPath() {
+        List<Change> entries = new ArrayList<Change>();
+        User author = mock(User.class);
+        for (int i = 0; i < 3; i++) {
+            entries.add(new Change("touch the same file", author, Arrays.asList("pom.xml", "src/File" + i + ".java")));
+        }
+        assertEquals(4, ChangeSetDigest.summarize(null, new Changes(entries)).getFileCount());
+    }
+
+    @Test
+    public void authorsAreBounded() {
+        ChangeSetDigest digest = ChangeSetDigest.of(build(1000, 1000, true));
+        assertEquals(ChangeSetDigest.MAX_COMMIT_MESSAGES, digest.getCommits().size());
+        assertTrue(digest.getAuthors().endsWith("dev" + (ChangeSetDigest.MAX_AUTHORS - 1)
+                + " and " + (1000 - ChangeSetDigest.MAX_AUTHORS) + " more"));
+    }
+
+    @Test
+    public void changeSetIsWalkedOncePerBuild() {
+        AbstractBuild build = build(10, 2, true);
+        ChangeSetDigest.of(build);
+        ChangeSetDigest.of(build);
+        verify(build, times(1)).getChangeSet();
+
+        ChangeSetDigest.invalidate(build);
+        ChangeSetDigest.of(build);
+        verify(build, times(2)).getChangeSet();
+    }
+
+    @Test
+    public void nothingIsKeptBeforeCheckout() {
+        AbstractBuild build = build(10, 2, false);
+        ChangeSetDigest.of(build);
+        ChangeSetDigest.of(build);
+        verify(build, times(2)).getChangeSet();
+    }
+
+    private static final class Changes extends ChangeLogSet<Change> {
+
+        private final List<Change> entries;
+
+        Changes(List<Change> entries) {
+            super(null, null);
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean isEmptySet() {
+            return entries.isEmpty();
+        }
+
+        public Iterator<Change> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    private static final class Change extends ChangeLogSet.Entry {
+
+        private final String msg;
+        private final User author;
+        private final List<String> paths;
+
+        Change(String msg, User author, List<String> paths) {
+            this.msg = msg;
+            this.author = author;
+            this.paths = paths;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return author;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return paths;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package jenkins.plugins.bearychat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private CircuitBreakerRegistry registry;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        registry = new CircuitBreakerRegistry();
+        registry.configure(50, 10, 4, 30);
+        breaker = registry.get("https://hook.bearychat.com/=abc/incoming/secret");
+    }
+
+    @Test
+    public void opensOnceTheFailureRateIsReached() {
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.record(false, 0));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.record(true, 0));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.record(true, 0));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, 1000));
+        assertFalse(breaker.tryAcquire(2000));
+    }
+
+    @Test
+    public void halfOpenLetsASingleProbeThrough() {
+        for (int i = 0; i < 4; i++) {
+            breaker.record(false, 0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire(30000));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(30001));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, 31000));
+        assertFalse(breaker.tryAcquire(40000));
+        assertTrue(breaker.tryAcquire(61000));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.record(true, 61000));
+        assertEquals(0, breaker.getFailureRate());
+    }
+
+    @Test
+    public void parkingKeepsOrderAndBoundsSize() {
+        QueuedNotification first = new QueuedNotification(breaker.getWebhook(), "general", null);
+        QueuedNotification second = new QueuedNotification(breaker.getWebhook(), "general", null);
+        assertNull(registry.park(first));
+        assertNull(registry.park(second));
+        assertEquals(2, breaker.getParked());
+        assertSame(first, registry.unpark(breaker.getWebhook()));
+        assertSame(second, registry.unpark(breaker.getWebhook()));
+        assertNull(registry.unpark(breaker.getWebhook()));
+    }
+
+    @Test
+    public void webhookSecretIsMasked() {
+        assertEquals("https://hook.bearychat.com/****cret", breaker.getDisplayName());
+    }
+}
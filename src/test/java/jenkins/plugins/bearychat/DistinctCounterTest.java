@@ -0,0 +1,43 @@
+package jenkins.plugins.bearychat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DistinctCounterTest {
+
+    @Test
+    public void countsExactlyUpToTheLimit() {
+        DistinctCounter counter = new DistinctCounter(100);
+        for (int i = 0; i < 300; i++) {
+            counter.add("src/File" + (i % 100) + ".java");
+        }
+        assertTrue(counter.isExact());
+        assertEquals(100, counter.count());
+    }
+
+    @Test
+    public void estimatesPastTheLimit() {
+        for (int distinct : new int[] {1500, 20000, 200000}) {
+            DistinctCounter counter = new DistinctCounter();
+            for (int i = 0; i < distinct; i++) {
+                counter.add("src/main/java/module" + (i % 50) + "/File" + i + ".java");
+                counter.add("src/main/java/module" + (i % 50) + "/File" + i + ".java");
+            }
+            assertFalse(counter.isExact());
+            assertEquals(distinct, counter.count(), distinct * 0.05);
+        }
+    }
+
+    @Test
+    public void switchingToTheSketchKeepsTheCount() {
+        DistinctCounter counter = new DistinctCounter(10);
+        for (int i = 0; i < 11; i++) {
+            counter.add("author" + i);
+        }
+        assertFalse(counter.isExact());
+        assertEquals(11, counter.count());
+    }
+}
@@ -0,0 +1,58 @@
+package jenkins.plugins.bearychat;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DnsCacheTest {
+
+    private static class CountingDnsCache extends DnsCache {
+
+        final AtomicInteger lookups = new AtomicInteger();
+
+        CountingDnsCache(long ttlMillis, int maxHosts) {
+            super(ttlMillis, maxHosts);
+        }
+
+        @Override
+        protected InetAddress[] lookup(String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            return new InetAddress[] {InetAddress.getByAddress(host, new byte[] {127, 0, 0, 1})};
+        }
+    }
+
+    @Test
+    public void resolvesOnceWithinTheTtl() throws Exception {
+        CountingDnsCache cache = new CountingDnsCache(60000, 10);
+        InetAddress[] first = cache.resolve("hook.bearychat.com");
+        assertSame(first, cache.resolve("hook.bearychat.com"));
+        assertEquals(1, cache.lookups.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void expiredAndEvictedHostsAreLookedUpAgain() throws Exception {
+        CountingDnsCache cache = new CountingDnsCache(0, 10);
+        cache.resolve("hook.bearychat.com");
+        cache.resolve("hook.bearychat.com");
+        assertEquals(2, cache.lookups.get());
+
+        cache = new CountingDnsCache(60000, 2);
+        cache.resolve("a");
+        cache.resolve("b");
+        cache.resolve("a");
+        cache.resolve("c");
+        assertEquals(2, cache.getSize());
+        cache.resolve("a");
+        assertEquals(3, cache.lookups.get());
+        cache.evict("a");
+        cache.resolve("a");
+        assertEquals(4, cache.lookups.get());
+    }
+}
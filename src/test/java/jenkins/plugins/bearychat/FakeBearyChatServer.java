@@ -0,0 +1,423 @@
+package jenkins.plugins.bearychat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.json.JSONObject;
+
+/**
+ * In-process stand-in for a BearyChat incoming webhook, for tests that need real HTTP.
+ *
+ * Every post is recorded, then answered with the next scripted {@link Fault} or,
+ * once the script has run out, with the default one. Successful and error
+ * responses are delayed by a configurable {@link Latency}.
+ */
+public class FakeBearyChatServer implements Closeable {
+
+    private static final String OK_BODY = "{\"code\":0,\"result\":null}";
+    private static final String ISO_8859_1 = "ISO-8859-1";
+
+    private final ServerSocket server;
+    private final ExecutorService handlers;
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final List<ReceivedPost> received = new ArrayList<ReceivedPost>();
+    private final LinkedList<Fault> script = new LinkedList<Fault>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Random random = new Random(42);
+
+    private volatile Latency latency = Latency.none();
+    private volatile Fault defaultFault = Fault.ok();
+
+    public FakeBearyChatServer() throws IOException {
+        server = new ServerSocket(0, 200, InetAddress.getByName("127.0.0.1"));
+        handlers = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Fake BearyChat connection");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Thread acceptor = new Thread("Fake BearyChat acceptor") {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getWebhook() {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/hooks/fake";
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public FakeBearyChatServer setLatency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    public FakeBearyChatServer setDefaultFault(Fault fault) {
+        this.defaultFault = fault;
+        return this;
+    }
+
+    /**
+     * Answers the next posts with the given faults, in order, before going back to the default.
+     */
+    public FakeBearyChatServer enqueue(Fault... faults) {
+        synchronized (script) {
+            Collections.addAll(script, faults);
+        }
+        return this;
+    }
+
+    /**
+     * @return how many TCP connections have been accepted
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public List<ReceivedPost> getReceived() {
+        synchronized (received) {
+            return new ArrayList<ReceivedPost>(received);
+        }
+    }
+
+    /**
+     * Waits until at least {@code count} posts have arrived.
+     *
+     * @throws AssertionError if they do not arrive in time
+     */
+    public List<ReceivedPost> awaitPosts(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (received) {
+            while (received.size() < count) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw new AssertionError("Expected " + count + " post(s) but got " + received.size());
+                }
+                received.wait(left);
+            }
+            return new ArrayList<ReceivedPost>(received);
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        handlers.shutdownNow();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.incrementAndGet();
+            sockets.add(socket);
+            handlers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // the client went away
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        sockets.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        String requestLine;
+        // keep-alive: one connection carries as many posts as the client sends
+        while ((requestLine = readLine(in)) != null) {
+            if (requestLine.length() == 0) {
+                continue;
+            }
+            Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            String line;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                }
+            }
+            String length = headers.get("Content-Length");
+            byte[] body = new byte[length == null ? 0 : Integer.parseInt(length)];
+            int read = 0;
+            while (read < body.length) {
+                int n = in.read(body, read, body.length - read);
+                if (n < 0) {
+                    return;
+                }
+                read += n;
+            }
+            String[] parts = requestLine.split(" ");
+            record(new ReceivedPost(parts[0], parts.length > 1 ? parts[1] : "", headers, body));
+
+            Fault fault = nextFault();
+            if (!fault.respond(socket, out, latency.nextMillis(random))) {
+                return;
+            }
+        }
+    }
+
+    private void record(ReceivedPost post) {
+        synchronized (received) {
+            received.add(post);
+            received.notifyAll();
+        }
+    }
+
+    private Fault nextFault() {
+        synchronized (script) {
+            return script.isEmpty() ? defaultFault : script.removeFirst();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c < 0 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(ISO_8859_1);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * How long the server thinks before it answers.
+     */
+    public abstract static class Latency {
+
+        public abstract long nextMillis(Random random);
+
+        public static Latency none() {
+            return fixed(0);
+        }
+
+        public static Latency fixed(final long millis) {
+            return new Latency() {
+                public long nextMillis(Random random) {
+                    return millis;
+                }
+            };
+        }
+
+        public static Latency uniform(final long minMillis, final long maxMillis) {
+            return new Latency() {
+                public long nextMillis(Random random) {
+                    return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+                }
+            };
+        }
+
+        /**
+         * Mostly {@code typicalMillis}, but one answer in {@code 1 / tailRatio} takes {@code tailMillis}.
+         */
+        public static Latency longTail(final long typicalMillis, final long tailMillis, final double tailRatio) {
+            return new Latency() {
+                public long nextMillis(Random random) {
+                    return random.nextDouble() < tailRatio ? tailMillis : typicalMillis;
+                }
+            };
+        }
+    }
+
+    /**
+     * What the server does with a post once it has read it.
+     */
+    public abstract static class Fault {
+
+        /**
+         * @return false if the connection must not be used again
+         */
+        abstract boolean respond(Socket socket, OutputStream out, long latencyMillis)
+                throws IOException, InterruptedException;
+
+        public static Fault ok() {
+            return status(200, null, OK_BODY);
+        }
+
+        public static Fault serverError(int statusCode) {
+            return status(statusCode, null, "{\"code\":" + statusCode + ",\"error\":\"fake failure\"}");
+        }
+
+        public static Fault tooManyRequests(int retryAfterSeconds) {
+            return status(429, String.valueOf(retryAfterSeconds), "{\"code\":429,\"error\":\"slow down\"}");
+        }
+
+        public static Fault status(final int statusCode, final String retryAfter, final String body) {
+            return new Fault() {
+                boolean respond(Socket socket, OutputStream out, long latencyMillis)
+                        throws IOException, InterruptedException {
+                    Thread.sleep(latencyMillis);
+                    byte[] bytes = body.getBytes("UTF-8");
+                    StringBuilder head = new StringBuilder();
+                    head.append("HTTP/1.1 ").append(statusCode).append(statusCode < 400 ? " OK" : " Error").append("\r\n");
+                    head.append("Content-Type: application/json; charset=UTF-8\r\n");
+                    if (retryAfter != null) {
+                        head.append("Retry-After: ").append(retryAfter).append("\r\n");
+                    }
+                    head.append("Content-Length: ").append(bytes.length).append("\r\n\r\n");
+                    out.write(head.toString().getBytes(ISO_8859_1));
+                    out.write(bytes);
+                    out.flush();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Drops the connection with a TCP reset instead of answering.
+         */
+        public static Fault reset() {
+            return new Fault() {
+                boolean respond(Socket socket, OutputStream out, long latencyMillis) throws IOException {
+                    socket.setSoLinger(true, 0);
+                    socket.close();
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Trickles a successful response out one byte at a time.
+         */
+        public static Fault slowLoris(final long millisPerByte) {
+            return new Fault() {
+                boolean respond(Socket socket, OutputStream out, long latencyMillis)
+                        throws IOException, InterruptedException {
+                    byte[] response = ("HTTP/1.1 200 OK\r\nContent-Length: " + OK_BODY.length() + "\r\n\r\n" + OK_BODY)
+                            .getBytes(ISO_8859_1);
+                    for (byte b : response) {
+                        out.write(b);
+                        out.flush();
+                        TimeUnit.MILLISECONDS.sleep(millisPerByte);
+                    }
+                    return true;
+                }
+            };
+        }
+    }
+
+    /**
+     * A post as the server read it off the wire.
+     */
+    public static class ReceivedPost {
+
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final long receivedNanos = System.nanoTime();
+
+        ReceivedPost(String method, String path, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @return the {@link System#nanoTime()} at which the whole post had been read
+         */
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Decodes the message whichever {@link PayloadFormat} it was sent in.
+         */
+        public JSONObject getPayload() throws IOException {
+            InputStream in = new ByteArrayInputStream(body);
+            if ("gzip".equalsIgnoreCase(getHeader("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                decoded.write(buffer, 0, n);
+            }
+            String text = decoded.toString("UTF-8");
+            String contentType = getHeader("Content-Type");
+            if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                text = URLDecoder.decode(text.substring(text.indexOf('=') + 1), "UTF-8");
+            }
+            return JSONObject.fromObject(text);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package jenkins.plugins.bearychat;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdempotencyCacheTest {
+
+    private static final long TTL = 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keysAreDeterministicAndPartBoundariesMatter() {
+        assertEquals(IdempotencyCache.key("folder/job", "42", "completed", "general"),
+                IdempotencyCache.key("folder/job", "42", "completed", "general"));
+        assertNotEquals(IdempotencyCache.key("job", "42", "started", "general"),
+                IdempotencyCache.key("job", "42", "completed", "general"));
+        assertNotEquals(IdempotencyCache.key("job4", "2"), IdempotencyCache.key("job", "42"));
+        assertNotEquals(IdempotencyCache.key("job", null), IdempotencyCache.key("job", ""));
+    }
+
+    @Test
+    public void duplicatesAreSuppressedUntilTheyExpire() {
+        IdempotencyCache cache = new IdempotencyCache(null, 100, TTL);
+        long key = IdempotencyCache.key("job", "1", "completed", "general");
+
+        assertTrue(cache.claim(key, 0));
+        assertFalse(cache.claim(key, 1000));
+        assertTrue(cache.claim(key, TTL + 1));
+    }
+
+    @Test
+    public void releasedKeysCanBeClaimedAgain() {
+        IdempotencyCache cache = new IdempotencyCache(null, 100, TTL);
+        long key = IdempotencyCache.key("job", "1", "completed", "general");
+        assertTrue(cache.claim(key, 0));
+        cache.release(key);
+        assertTrue(cache.claim(key, 1));
+    }
+
+    @Test
+    public void oldestKeysAreEvictedAtCapacity() {
+        IdempotencyCache cache = new IdempotencyCache(null, 3, TTL);
+        for (long key = 1; key <= 4; key++) {
+            assertTrue(cache.claim(key, key));
+        }
+        assertEquals(3, cache.size());
+        assertTrue(cache.claim(1, 10));
+        assertFalse(cache.claim(4, 10));
+    }
+
+    @Test
+    public void survivesARestart() throws Exception {
+        File file = new File(folder.getRoot(), IdempotencyCache.FILE_NAME);
+        long now = System.currentTimeMillis();
+        IdempotencyCache cache = new IdempotencyCache(file, 100, TTL);
+        for (long key = 1; key <= 50; key++) {
+            cache.claim(key, now);
+        }
+        cache.save();
+        // two longs per key and a small header
+        assertEquals(8 + 50 * 16, file.length());
+
+        IdempotencyCache restarted = new IdempotencyCache(null, 100, TTL);
+        restarted.load(file);
+        assertEquals(50, restarted.size());
+        assertFalse(restarted.claim(7, now + 1));
+        assertTrue(restarted.claim(51, now + 1));
+    }
+}
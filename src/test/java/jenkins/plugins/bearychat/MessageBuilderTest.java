@@ -0,0 +1,108 @@
+package jenkins.plugins.bearychat;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.scm.ChangeLogSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class MessageBuilderTest {
+
+    private AbstractBuild build;
+
+    @Before
+    public void setUp() throws Exception {
+        AbstractProject project = mock(AbstractProject.class);
+        when(project.getDisplayName()).thenReturn("app");
+        when(project.getAbsoluteUrl()).thenReturn("http://ci.example.com/job/app/");
+        build = mock(AbstractBuild.class);
+        Whitebox.setInternalState(build, "project", project, Run.class);
+        when(build.getParent()).thenReturn(project);
+        when(build.getDisplayName()).thenReturn("#7");
+        when(build.getChangeSet()).thenReturn(ChangeLogSet.createEmpty(build));
+    }
+
+    private BearyChatNotifier notifier(boolean includeCustomMessage) {
+        return notifier(includeCustomMessage, "started");
+    }
+
+    private BearyChatNotifier notifier(boolean includeCustomMessage, String customStartMessage) {
+        return new BearyChatNotifier("http://bearychat.example.com/hook", "#ci", null,
+                true, true, true, true, true, true, true, includeCustomMessage, customStartMessage, "finished");
+    }
+
+    @Test
+    public void nothingIsComputedUpFront() {
+        new MessageBuilder(notifier(true), build);
+        verifyZeroInteractions(build);
+    }
+
+    @Test
+    public void startedTextSkipsCommitsAndStatus() throws Exception {
+        MessageBuilder builder = new MessageBuilder(notifier(false), build);
+        assertEquals("0 file(s) changed", builder.getStartedText());
+        builder.getStartedFallback();
+
+        // one walk of the change set serves both, the commits and the status are never looked at
+        verify(build, times(1)).getChangeSet();
+        verify(build, never()).getResult();
+        verify(build, never()).getCause(any(Class.class));
+        verify(build, never()).getEnvironment(any(TaskListener.class));
+    }
+
+    @Test
+    public void customMessageReadsTheEnvironmentOncePerPhase() throws Exception {
+        when(build.getEnvironment(any(TaskListener.class))).thenReturn(new EnvVars());
+        MessageBuilder builder = new MessageBuilder(notifier(true), build);
+        builder.getStartedText();
+        builder.getStartedText();
+        verify(build, times(1)).getEnvironment(any(TaskListener.class));
+    }
+
+    @Test
+    public void layoutReadsOnlyTheFieldsItShows() throws Exception {
+        EnvVars envVars = new EnvVars();
+        envVars.put("NODE_NAME", "agent-1");
+        when(build.getEnvironment(any(TaskListener.class))).thenReturn(envVars);
+        BearyChatNotifier notifier = notifier(false);
+        notifier.setStartedLayout("${job_name} of ${project_name} started on $NODE_NAME");
+        MessageBuilder builder = new MessageBuilder(notifier, build);
+        assertEquals("#7 of app started on agent-1", builder.getStartedMessage());
+        verify(build, never()).getChangeSet();
+        verify(build, never()).getResult();
+    }
+
+    @Test
+    public void environmentVariablesComeBeforeBuiltInFields() throws Exception {
+        EnvVars envVars = new EnvVars();
+        envVars.put("job_name", "nightly");
+        when(build.getEnvironment(any(TaskListener.class))).thenReturn(envVars);
+        BearyChatNotifier notifier = notifier(true, "${job_name} started");
+        notifier.setStartedLayout("${job_name} of ${project_name}");
+        MessageBuilder builder = new MessageBuilder(notifier, build);
+        assertEquals("nightly of app", builder.getStartedMessage());
+        assertEquals("nightly started", Helper.getCustomStartMessage(notifier, build));
+        assertEquals(builder.getCustomStartMessage(), Helper.getCustomStartMessage(notifier, build));
+    }
+
+    @Test
+    public void defaultTitleIgnoresTheEnvironment() throws Exception {
+        MessageBuilder builder = new MessageBuilder(notifier(false), build);
+        builder.getStartedMessage();
+        verify(build, never()).getEnvironment(any(TaskListener.class));
+    }
+}
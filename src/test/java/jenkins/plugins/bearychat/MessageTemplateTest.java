@@ -0,0 +1,83 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTemplateTest {
+
+    private static class MapFields implements MessageTemplate.Fields {
+
+        final Map<String, String> values = new HashMap<String, String>();
+        final List<String> asked = new ArrayList<String>();
+
+        MapFields with(String name, String value) {
+            values.put(name, value);
+            return this;
+        }
+
+        public String get(String name) {
+            asked.add(name);
+            return values.get(name);
+        }
+    }
+
+    @Test
+    public void substitutesBothPlaceholderForms() {
+        MessageTemplate template = MessageTemplate.compile("[${project_name}](${project_url}) #$BUILD_NUMBER done");
+        MapFields fields = new MapFields().with("project_name", "app").with("project_url", "http://ci/app")
+                .with("BUILD_NUMBER", "7");
+        assertEquals("[app](http://ci/app) #7 done", template.render(fields));
+    }
+
+    @Test
+    public void followsEnvVarsExpansion() {
+        MapFields fields = new MapFields().with("A", "1").with("a.b", "2");
+        assertEquals("$A costs $5, 1", MessageTemplate.compile("$$A costs $5, ${A}").render(fields.with("5", null)));
+        assertEquals("2 ${MISSING} $MISSING", MessageTemplate.compile("${a.b} ${MISSING} $MISSING").render(fields));
+        assertEquals("${ broken $ {A} $", MessageTemplate.compile("${ broken $ {A} $").render(fields));
+        assertEquals("${A", MessageTemplate.compile("${A").render(fields));
+    }
+
+    @Test
+    public void literalTemplatesNeverAskForFields() {
+        MapFields fields = new MapFields();
+        MessageTemplate template = MessageTemplate.compile("deployed to production");
+        assertFalse(template.hasPlaceholders());
+        assertEquals("deployed to production", template.render(fields));
+        assertSame(MessageTemplate.EMPTY, MessageTemplate.compile(null));
+        assertEquals("", MessageTemplate.compile("").render(fields));
+        assertTrue(fields.asked.isEmpty());
+    }
+
+    @Test
+    public void fieldsMayRenderOtherTemplates() {
+        final MessageTemplate inner = MessageTemplate.compile("${x}-${x}");
+        MessageTemplate outer = MessageTemplate.compile("<${inner}|${inner}>");
+        assertEquals("<a-a|a-a>", outer.render(new MessageTemplate.Fields() {
+            public String get(String name) {
+                return "inner".equals(name) ? inner.render(new MapFields().with("x", "a")) : null;
+            }
+        }));
+    }
+
+    @Test
+    public void longMessagesDoNotKeepTheirBuffer() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < MessageTemplate.MAX_RETAINED_BUFFER; i++) {
+            value.append('x');
+        }
+        MessageTemplate template = MessageTemplate.compile("${long}!");
+        String rendered = template.render(new MapFields().with("long", value.toString()));
+        assertEquals(MessageTemplate.MAX_RETAINED_BUFFER + 1, rendered.length());
+        assertEquals("short!", template.render(new MapFields().with("long", "short")));
+    }
+}
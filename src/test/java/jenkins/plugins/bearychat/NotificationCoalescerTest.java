@@ -0,0 +1,138 @@
+package jenkins.plugins.bearychat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationCoalescerTest {
+
+    private ScheduledExecutorService scheduler;
+    private List<QueuedNotification> flushed;
+    private NotificationCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        flushed = new CopyOnWriteArrayList<QueuedNotification>();
+        coalescer = new NotificationCoalescer(scheduler, new NotificationCoalescer.Sink() {
+            public void flush(QueuedNotification notification) {
+                flushed.add(notification);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static QueuedNotification notification(String channel, String title, boolean urgent) {
+        StandardBearyChatService service = new StandardBearyChatService("http://localhost/hook", channel);
+        BearyChatPayload payload = service.genPayload(title, "commits of " + title, title + " fallback", Helper.COLOR_BLUE);
+        QueuedNotification notification = new QueuedNotification("http://localhost/hook", channel, payload);
+        notification.setUrgent(urgent);
+        return notification;
+    }
+
+    @Test
+    public void fullBatchIsMergedIntoOneMessage() {
+        coalescer.configure(true, 60, 3, BearyChatPayload.DEFAULT_MAX_BYTES);
+        coalescer.add(notification("general", "job-a #1", false));
+        coalescer.add(notification("general", "job-b #1", true));
+        coalescer.add(notification("random", "job-c #1", false));
+        assertTrue(flushed.isEmpty());
+        coalescer.add(notification("general", "job-d #1", false));
+
+        assertEquals(1, flushed.size());
+        QueuedNotification merged = flushed.get(0);
+        assertEquals(3, merged.getParts().size());
+        assertTrue(merged.isUrgent());
+        List<BearyChatPayload.Attachment> attachments = merged.getPayload().getAttachments();
+        assertEquals(3, attachments.size());
+        assertEquals("job-b #1\ncommits of job-b #1", attachments.get(1).getText());
+        assertEquals(Helper.COLOR_BLUE, attachments.get(1).getColor());
+        assertEquals(1, coalescer.getBuffered());
+    }
+
+    @Test
+    public void windowFlushesPartialBatches() throws Exception {
+        coalescer.configure(true, 1, 20, BearyChatPayload.DEFAULT_MAX_BYTES);
+        QueuedNotification single = notification("general", "job-a #1", false);
+        coalescer.add(single);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (flushed.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, flushed.size());
+        // a lone notification is sent unchanged
+        assertTrue(flushed.get(0) == single);
+    }
+
+    @Test
+    public void batchesLargerThanTheLimitAreSplit() {
+        int partBytes = PayloadWriter.utf8Length(notification("general", "job-0 #1", false).getPayload().toString());
+        coalescer.configure(true, 60, 5, partBytes * 2 + partBytes / 2);
+        QueuedNotification last = null;
+        for (int i = 0; i < 5; i++) {
+            last = notification("general", "job-" + i + " #1", false);
+            coalescer.add(last);
+        }
+
+        assertEquals(3, flushed.size());
+        int parts = 0;
+        for (QueuedNotification message : flushed) {
+            assertTrue(PayloadWriter.utf8Length(message.getPayload().toString()) <= partBytes * 2 + partBytes / 2);
+            parts += message.getParts().isEmpty() ? 1 : message.getParts().size();
+        }
+        assertEquals(5, parts);
+        assertTrue(flushed.get(2) == last);
+    }
+
+    @Test
+    public void readTimeoutsAreNotMixed() {
+        coalescer.configure(true, 60, 2, BearyChatPayload.DEFAULT_MAX_BYTES);
+        QueuedNotification slow = notification("general", "job-a #1", false);
+        slow.setReadTimeoutMillis(30000);
+        coalescer.add(slow);
+        coalescer.add(notification("general", "job-b #1", false));
+        assertTrue(flushed.isEmpty());
+        QueuedNotification alsoSlow = notification("general", "job-c #1", false);
+        alsoSlow.setReadTimeoutMillis(30000);
+        coalescer.add(alsoSlow);
+
+        assertEquals(1, flushed.size());
+        assertEquals(30000, flushed.get(0).getReadTimeoutMillis());
+        assertEquals(1, coalescer.getBuffered());
+    }
+
+    @Test
+    public void extraFieldsAndFormatsSurviveMerging() {
+        coalescer.configure(true, 60, 2, BearyChatPayload.DEFAULT_MAX_BYTES);
+        JSONObject data = JSONObject.fromObject("{\"text\":\"deployed\",\"markdown\":true,"
+                + "\"attachments\":[{\"title\":\"Deploy\",\"images\":[{\"url\":\"http://ci/logo.png\"}]}]}");
+        QueuedNotification rich = new QueuedNotification("http://localhost/hook", "general", BearyChatPayload.fromJSON(data));
+        coalescer.add(rich);
+        QueuedNotification gzipped = notification("general", "job-b #1", false);
+        gzipped.setPayloadFormat(PayloadFormat.JSON_GZIP);
+        coalescer.add(gzipped);
+        assertTrue(flushed.isEmpty());
+        coalescer.add(notification("general", "job-c #1", false));
+
+        assertEquals(1, flushed.size());
+        BearyChatPayload merged = flushed.get(0).getPayload();
+        assertEquals("true", merged.getExtraFields().get("markdown"));
+        assertEquals("[{\"url\":\"http://ci/logo.png\"}]", merged.getAttachments().get(0).getExtraFields().get("images"));
+        assertEquals("deployed", merged.getAttachments().get(0).getText());
+        assertEquals(1, coalescer.getBuffered());
+    }
+}
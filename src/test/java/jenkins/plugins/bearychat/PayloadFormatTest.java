@@ -0,0 +1,75 @@
+package jenkins.plugins.bearychat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadFormatTest {
+
+    private static String changelogPayload() {
+        StringBuilder changes = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            changes.append("* 修复构建通知中的中文乱码问题 #").append(i).append(" [张三]\n");
+        }
+        JSONObject attachment = new JSONObject();
+        attachment.put("title", "项目 » 主干 #42 构建成功");
+        attachment.put("text", changes.toString());
+        attachment.put("color", Helper.COLOR_GREEN);
+        JSONArray attachments = new JSONArray();
+        attachments.add(attachment);
+        JSONObject data = new JSONObject();
+        data.put("text", "构建成功 [项目 » 主干 #42](http://jenkins/job/project/42/)");
+        data.put("attachments", attachments);
+        return data.toString();
+    }
+
+    @Test
+    public void jsonBodyIsSmallerThanFormAndGzipIsSmallest() throws Exception {
+        String json = changelogPayload();
+
+        int form = PayloadFormat.FORM.encode(json).length;
+        int plain = PayloadFormat.JSON.encode(json).length;
+        int gzip = PayloadFormat.JSON_GZIP.encode(json).length;
+
+        // percent-encoding turns every 3 byte character into 9 bytes
+        assertTrue("form " + form + " vs json " + plain, plain * 2 < form);
+        assertTrue("json " + plain + " vs gzip " + gzip, gzip * 5 < plain);
+    }
+
+    @Test
+    public void encodingsRoundTrip() throws Exception {
+        String json = changelogPayload();
+
+        String form = new String(PayloadFormat.FORM.encode(json), "UTF-8");
+        assertTrue(form.startsWith("payload="));
+        assertEquals(json, URLDecoder.decode(form.substring("payload=".length()), "UTF-8"));
+
+        assertEquals(json, new String(PayloadFormat.JSON.encode(json), "UTF-8"));
+
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(PayloadFormat.JSON_GZIP.encode(json)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        assertEquals(json, new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void unknownNamesFallBackToTheDefault() {
+        assertSame(PayloadFormat.JSON_GZIP, PayloadFormat.fromName("JSON_GZIP", PayloadFormat.FORM));
+        assertSame(PayloadFormat.JSON, PayloadFormat.fromName(null, PayloadFormat.JSON));
+        assertSame(PayloadFormat.FORM, PayloadFormat.fromName("XML", PayloadFormat.FORM));
+    }
+}
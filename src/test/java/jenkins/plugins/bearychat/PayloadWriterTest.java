@@ -0,0 +1,156 @@
+package jenkins.plugins.bearychat;
+
+import java.io.StringWriter;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadWriterTest {
+
+    @Test
+    public void writesTheSameDocumentAsJsonLib() {
+        BearyChatPayload payload = new BearyChatPayload("构建成功 \"master\" #42", "fallback\twith\ttabs");
+        payload.setChannel("general");
+        payload.addAttachment(new BearyChatPayload.Attachment("title", "line 1\nline 2 \\ path", Helper.COLOR_BLUE, "http://jenkins/job/a/42/"));
+        payload.addAttachment(new BearyChatPayload.Attachment(null, "bell \u0007 and  ", null, null));
+
+        JSONObject parsed = JSONObject.fromObject(PayloadWriter.toJson(payload));
+
+        assertEquals(payload.getText(), parsed.getString("text"));
+        assertEquals(payload.getFallback(), parsed.getString("fallback"));
+        assertEquals("general", parsed.getString("channel"));
+        JSONArray attachments = parsed.getJSONArray("attachments");
+        assertEquals(2, attachments.size());
+        assertEquals("line 1\nline 2 \\ path", attachments.getJSONObject(0).getString("text"));
+        assertEquals("http://jenkins/job/a/42/", attachments.getJSONObject(0).getString("url"));
+        assertEquals("bell \u0007 and  ", attachments.getJSONObject(1).getString("text"));
+        assertEquals(false, attachments.getJSONObject(1).has("title"));
+    }
+
+    @Test
+    public void bridgesFromJsonObjects() {
+        JSONObject attachment = new JSONObject();
+        attachment.put("text", "changes");
+        attachment.put("color", Helper.COLOR_RED);
+        JSONArray attachments = new JSONArray();
+        attachments.add(attachment);
+        JSONObject data = new JSONObject();
+        data.put("text", "failed");
+        data.put("attachments", attachments);
+
+        BearyChatPayload payload = BearyChatPayload.fromJSON(data);
+
+        assertEquals("failed", payload.getText());
+        assertEquals(null, payload.getFallback());
+        assertEquals(1, payload.getAttachments().size());
+        assertEquals(Helper.COLOR_RED, payload.getAttachments().get(0).getColor());
+        assertEquals(data, JSONObject.fromObject(PayloadWriter.toJson(payload)));
+    }
+
+    @Test
+    public void bridgeKeepsFieldsItDoesNotModel() {
+        JSONArray images = new JSONArray();
+        images.add(JSONObject.fromObject("{\"url\":\"http://ci/chart.png\"}"));
+        JSONObject attachment = new JSONObject();
+        attachment.put("text", "changes");
+        attachment.put("images", images);
+        JSONArray attachments = new JSONArray();
+        attachments.add(attachment);
+        JSONObject data = new JSONObject();
+        data.put("text", "**failed**");
+        data.put("markdown", true);
+        data.put("notification", "failed \"quoted\"");
+        data.put("user", "jenkins");
+        data.put("attachments", attachments);
+
+        BearyChatPayload payload = BearyChatPayload.fromJSON(data);
+
+        assertEquals("true", payload.getExtraFields().get("markdown"));
+        assertEquals(data, JSONObject.fromObject(PayloadWriter.toJson(payload)));
+
+        // and so does a payload whose attachments the model cannot hold
+        data.put("attachments", "not a list");
+        assertEquals(data, JSONObject.fromObject(PayloadWriter.toJson(BearyChatPayload.fromJSON(data))));
+    }
+
+    @Test
+    public void escapesJsonButLeavesHtmlAlone() throws Exception {
+        StringWriter out = new StringWriter();
+        PayloadWriter.writeString("<b>\"a\" & b</b>\n", out);
+        assertEquals("\"<b>\\\"a\\\" & b</b>\\n\"", out.toString());
+    }
+
+    @Test
+    public void escapeHtmlReturnsCleanStringsUnchanged() {
+        String clean = "nothing to escape";
+        assertSame(clean, PayloadWriter.escapeHtml(clean));
+        assertEquals("a &lt; b &amp;&amp; c &gt; d", PayloadWriter.escapeHtml("a < b && c > d"));
+    }
+
+    @Test
+    public void utf8LengthMatchesTheEncoder() throws Exception {
+        String[] values = {"", "ascii", "构建成功", "emoji \ud83d\ude80 ok", "lone \ud83d surrogate", "é\u0007\u2028"};
+        for (String value : values) {
+            assertEquals(value, value.getBytes("UTF-8").length, PayloadWriter.utf8Length(value));
+        }
+    }
+
+    @Test
+    public void truncatedTextStaysValidUtf8() throws Exception {
+        String value = "构建 \ud83d\ude80\ud83d\ude80 done";
+        for (int budget = 0; budget <= PayloadWriter.utf8Length(value); budget++) {
+            String cut = PayloadWriter.truncateJson(value, budget);
+            byte[] bytes = cut.getBytes("UTF-8");
+            assertTrue(bytes.length <= budget);
+            // a split surrogate pair would not survive the round trip
+            assertEquals(cut, new String(bytes, "UTF-8"));
+        }
+        assertSame(value, PayloadWriter.truncateJson(value, 1000));
+        assertEquals("构" + PayloadWriter.ELLIPSIS, PayloadWriter.truncateJson(value, 6));
+    }
+
+    @Test
+    public void payloadIsCutToTheBudget() throws Exception {
+        StringBuilder commits = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            commits.append("- 修复 \"quoted\" change ").append(i).append('\n');
+        }
+        BearyChatPayload payload = new BearyChatPayload("[app](http://jenkins/job/app/) - #7 Failure", "app - #7 Failure");
+        payload.addAttachment(new BearyChatPayload.Attachment(null, commits.toString(), Helper.COLOR_RED, null));
+
+        assertTrue(payload.truncate(4096));
+        byte[] json = payload.toString().getBytes("UTF-8");
+        assertTrue(json.length <= 4096);
+        assertTrue(json.length > 4000);
+        assertEquals("[app](http://jenkins/job/app/) - #7 Failure", payload.getText());
+        assertTrue(payload.getAttachments().get(0).getText().endsWith(PayloadWriter.ELLIPSIS));
+        JSONObject.fromObject(new String(json, "UTF-8"));
+
+        assertFalse(payload.truncate(4096));
+    }
+
+    @Test
+    public void textIsCutWhenAttachmentsAreNotEnough() throws Exception {
+        BearyChatPayload payload = new BearyChatPayload(repeat("长", 500), "fallback");
+        payload.addAttachment(new BearyChatPayload.Attachment("title", "short", null, null));
+        assertTrue(payload.truncate(300));
+        assertTrue(payload.toString().getBytes("UTF-8").length <= 300);
+        assertEquals("", payload.getAttachments().get(0).getText());
+        assertEquals("title", payload.getAttachments().get(0).getTitle());
+        assertTrue(payload.getText().endsWith(PayloadWriter.ELLIPSIS));
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            repeated.append(value);
+        }
+        return repeated.toString();
+    }
+}
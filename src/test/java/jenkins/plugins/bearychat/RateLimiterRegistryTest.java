@@ -0,0 +1,87 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterRegistryTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void urgentNotificationsCanUseTheReserve() {
+        // 60 per minute, burst of 5 with one token reserved for urgent notifications
+        TokenBucket bucket = new TokenBucket(60, 5, 0);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, bucket.tryAcquire(false, 0));
+        }
+        assertTrue(bucket.tryAcquire(false, 0) > 0);
+        assertEquals(0, bucket.tryAcquire(true, 0));
+        assertTrue(bucket.tryAcquire(true, 0) > 0);
+    }
+
+    @Test
+    public void bucketRefillsOverTime() {
+        TokenBucket bucket = new TokenBucket(60, 1, 0);
+        assertEquals(0, bucket.tryAcquire(false, 0));
+        long wait = bucket.tryAcquire(false, 0);
+        assertTrue(wait > 0 && wait <= SECOND);
+        assertEquals(0, bucket.tryAcquire(false, SECOND));
+    }
+
+    @Test
+    public void concurrencyIsAdditiveIncreaseMultiplicativeDecrease() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("http://localhost/hook", 4, 8, 1000);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        assertFalse(limit.tryAcquire());
+
+        limit.release(5000, false, 10000);
+        assertEquals(2, limit.getLimit());
+        // a second slow response within the same round trip does not halve again
+        limit.release(5000, false, 11000);
+        assertEquals(2, limit.getLimit());
+        limit.release(100, true, 20000);
+        assertEquals(1, limit.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            limit.tryAcquire();
+            limit.release(100, false, 30000);
+        }
+        assertTrue(limit.getLimit() > 1);
+    }
+
+    @Test
+    public void newSettingsKeepThePostsInFlight() {
+        RateLimiterRegistry registry = new RateLimiterRegistry();
+        registry.configure(60, 10, 2);
+        AdaptiveConcurrencyLimit limit = registry.getConcurrencyLimit("a");
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        registry.configure(120, 10, 1);
+        assertSame(limit, registry.getConcurrencyLimit("a"));
+        assertEquals(1, limit.getLimit());
+        limit.release(10, false, 0);
+        assertFalse(limit.tryAcquire());
+        limit.release(10, false, 0);
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void bucketsArePerWebhookAndChannel() {
+        RateLimiterRegistry registry = new RateLimiterRegistry();
+        assertSame(registry.getBucket("a", "general"), registry.getBucket("a", "general"));
+        assertNotSame(registry.getBucket("a", "general"), registry.getBucket("a", "random"));
+        registry.recordWait(TimeUnit.MILLISECONDS.toNanos(40));
+        registry.recordWait(TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(30, registry.getAverageWaitMillis());
+        assertEquals(40, registry.getMaxWaitMillis());
+    }
+}
@@ -0,0 +1,52 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void classifiesResponses() {
+        assertTrue(DeliveryResult.fromStatus(200, null, "ok").isSuccess());
+        assertTrue(DeliveryResult.fromStatus(429, null, null).isRetryable());
+        assertTrue(DeliveryResult.fromStatus(503, null, null).isRetryable());
+        assertFalse(DeliveryResult.fromStatus(404, null, null).isRetryable());
+        assertFalse(DeliveryResult.fromStatus(400, null, null).isRetryable());
+        assertTrue(DeliveryResult.fromException(new IOException("reset")).isRetryable());
+        assertFalse(DeliveryResult.fromException(new IllegalArgumentException("bad url")).isRetryable());
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertEquals(30000, DeliveryResult.parseRetryAfter("30", 0));
+        assertEquals(-1, DeliveryResult.parseRetryAfter("soon", 0));
+        assertEquals(-1, DeliveryResult.parseRetryAfter(null, 0));
+        // Sun, 06 Nov 1994 08:49:37 GMT
+        long date = 784111777000L;
+        assertEquals(5000, DeliveryResult.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", date - 5000));
+    }
+
+    @Test
+    public void backoffGrowsWithJitterAndStaysUnderTheCap() {
+        RetryPolicy policy = new RetryPolicy(24 * 60 * 60 * 1000L);
+        for (int attempt = 1; attempt < 30; attempt++) {
+            long backoff = Math.min(RetryPolicy.INITIAL_DELAY << Math.min(attempt - 1, 20), RetryPolicy.MAX_DELAY);
+            long delay = policy.nextDelay(attempt, -1, 0, 0);
+            assertTrue(delay >= backoff / 2);
+            assertTrue(delay <= backoff);
+        }
+    }
+
+    @Test
+    public void honoursRetryAfterAndDeadline() {
+        RetryPolicy policy = new RetryPolicy(60 * 1000L);
+        assertEquals(20000, policy.nextDelay(1, 20000, 0, 0));
+        assertEquals(-1, policy.nextDelay(1, 20000, 0, 50000));
+        assertEquals(-1, policy.nextDelay(1, -1, 0, 60000));
+    }
+}
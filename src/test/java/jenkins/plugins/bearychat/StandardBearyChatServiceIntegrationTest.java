@@ -0,0 +1,169 @@
+package jenkins.plugins.bearychat;
+
+import java.util.List;
+
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link StandardBearyChatService} and the delivery queue against a {@link FakeBearyChatServer}.
+ */
+public class StandardBearyChatServiceIntegrationTest {
+
+    private FakeBearyChatServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBearyChatServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test(timeout = 20000)
+    public void postsTheMessageToTheChannel() throws Exception {
+        StandardBearyChatService service = new StandardBearyChatService(server.getWebhook(), "#ci");
+        assertTrue(service.publish("build started", "job #1", "fallback", Helper.COLOR_GREEN));
+
+        FakeBearyChatServer.ReceivedPost post = server.awaitPosts(1, 5000).get(0);
+        assertEquals("POST", post.getMethod());
+        assertTrue(post.getPath().startsWith("/hooks/fake?v="));
+        assertEquals(StandardBearyChatService.VERSION, post.getHeader("X-PLUGIN-VERSION"));
+        JSONObject payload = post.getPayload();
+        assertEquals("build started", payload.getString("text"));
+        assertEquals("#ci", payload.getString("channel"));
+        assertEquals("job #1", payload.getJSONArray("attachments").getJSONObject(0).getString("text"));
+    }
+
+    @Test(timeout = 20000)
+    public void everyPayloadFormatArrivesIntact() throws Exception {
+        for (PayloadFormat format : PayloadFormat.values()) {
+            StandardBearyChatService service = new StandardBearyChatService(server.getWebhook(), "#ci");
+            service.setPayloadFormat(format);
+            service.setIdempotencyKey(0xcafeL);
+            assertTrue(format.name(), service.publish("构建 " + format));
+        }
+        List<FakeBearyChatServer.ReceivedPost> posts = server.awaitPosts(PayloadFormat.values().length, 5000);
+        for (int i = 0; i < posts.size(); i++) {
+            PayloadFormat format = PayloadFormat.values()[i];
+            assertEquals("构建 " + format, posts.get(i).getPayload().getString("text"));
+            assertEquals(format.getContentEncoding(), posts.get(i).getHeader("Content-Encoding"));
+            assertEquals("cafe", posts.get(i).getHeader("X-Idempotency-Key"));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void serverErrorsAreRetryable() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.serverError(503), FakeBearyChatServer.Fault.serverError(400));
+        StandardBearyChatService service = new StandardBearyChatService(server.getWebhook(), "#ci");
+
+        DeliveryResult unavailable = service.send(new BearyChatPayload("first", null));
+        assertEquals(503, unavailable.getStatusCode());
+        assertTrue(unavailable.isRetryable());
+
+        DeliveryResult badRequest = service.send(new BearyChatPayload("second", null));
+        assertEquals(400, badRequest.getStatusCode());
+        assertFalse(badRequest.isRetryable());
+
+        assertTrue(service.send(new BearyChatPayload("third", null)).isSuccess());
+    }
+
+    @Test(timeout = 20000)
+    public void tooManyRequestsCarriesRetryAfter() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.tooManyRequests(7));
+        DeliveryResult result = new StandardBearyChatService(server.getWebhook(), "#ci")
+                .send(new BearyChatPayload("message", null));
+        assertEquals(429, result.getStatusCode());
+        assertTrue(result.isRetryable());
+        assertEquals(7000, result.getRetryAfterMillis());
+    }
+
+    @Test(timeout = 20000)
+    public void onlyAnEncodingRejectionFallsBackToPlainJson() throws Exception {
+        StandardBearyChatService service = new StandardBearyChatService(server.getWebhook(), "#ci");
+        service.setPayloadFormat(PayloadFormat.JSON_GZIP);
+        server.enqueue(FakeBearyChatServer.Fault.status(400, null, "{\"error\":\"channel not found\"}"));
+        assertEquals(400, service.send(new BearyChatPayload("unknown channel", null)).getStatusCode());
+        assertEquals(1, server.getReceived().size());
+
+        server.enqueue(FakeBearyChatServer.Fault.status(415, null, ""));
+        assertTrue(service.send(new BearyChatPayload("plain", null)).isSuccess());
+        List<FakeBearyChatServer.ReceivedPost> posts = server.awaitPosts(3, 5000);
+        assertEquals("gzip", posts.get(1).getHeader("Content-Encoding"));
+        assertEquals(null, posts.get(2).getHeader("Content-Encoding"));
+
+        String host = "127.0.0.1:" + server.getPort();
+        long now = System.currentTimeMillis();
+        assertTrue(StandardBearyChatService.isGzipRejected(host, now));
+        assertFalse(StandardBearyChatService.isGzipRejected(host, now + StandardBearyChatService.GZIP_REJECTION_TTL));
+        assertFalse(StandardBearyChatService.isGzipRejected(host, now));
+    }
+
+    @Test
+    public void badRequestsAboutTheEncodingRejectGzip() {
+        assertTrue(StandardBearyChatService.rejectsGzip(DeliveryResult.fromStatus(400, null, "Unsupported Content-Encoding: gzip")));
+        assertFalse(StandardBearyChatService.rejectsGzip(DeliveryResult.fromStatus(400, null, "invalid token")));
+        assertFalse(StandardBearyChatService.rejectsGzip(DeliveryResult.fromStatus(400, null, null)));
+        assertTrue(StandardBearyChatService.rejectsGzip(DeliveryResult.fromStatus(415, null, null)));
+    }
+
+    @Test(timeout = 20000)
+    public void connectionResetIsRetryable() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.reset());
+        DeliveryResult result = new StandardBearyChatService(server.getWebhook(), "#ci")
+                .send(new BearyChatPayload("message", null));
+        assertFalse(result.isSuccess());
+        assertTrue(result.isRetryable());
+        // the server did get the post, which is why retries carry an idempotency key
+        assertEquals(1, server.getReceived().size());
+    }
+
+    @Test(timeout = 20000)
+    public void slowLorisIsCutOffByTheReadTimeout() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.slowLoris(1000));
+        StandardBearyChatService service = new StandardBearyChatService(server.getWebhook(), "#ci");
+        service.setReadTimeoutMillis(300);
+        long start = System.currentTimeMillis();
+        DeliveryResult result = service.send(new BearyChatPayload("message", null));
+        assertFalse(result.isSuccess());
+        assertTrue(result.isRetryable());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test(timeout = 20000)
+    public void latencyIsObserved() throws Exception {
+        server.setLatency(FakeBearyChatServer.Latency.uniform(100, 150));
+        StandardBearyChatService service = new StandardBearyChatService(server.getWebhook(), "#ci");
+        long start = System.currentTimeMillis();
+        assertTrue(service.publish("message"));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+
+    /**
+     * A notification that hits a rate limit and a reset still arrives, carrying the same key each time.
+     */
+    @Test(timeout = 30000)
+    public void deliveryQueueRetriesThroughFaults() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.tooManyRequests(0), FakeBearyChatServer.Fault.reset());
+        BearyChatDeliveryQueue queue = new BearyChatDeliveryQueue();
+        QueuedNotification notification = new QueuedNotification(server.getWebhook(), "#ci",
+                new BearyChatPayload("retried", null));
+        notification.setIdempotencyKey(0xbeefL);
+        assertTrue(queue.submit(notification));
+
+        List<FakeBearyChatServer.ReceivedPost> posts = server.awaitPosts(3, 20000);
+        for (FakeBearyChatServer.ReceivedPost post : posts) {
+            assertEquals("retried", post.getPayload().getString("text"));
+            assertEquals("beef", post.getHeader("X-Idempotency-Key"));
+        }
+        assertEquals(2, queue.getRetries());
+    }
+}
@@ -0,0 +1,63 @@
+package jenkins.plugins.bearychat;
+
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeoutPolicyTest {
+
+    private static LogHistogram latencies(long millis, int count) {
+        LogHistogram histogram = new LogHistogram();
+        for (int i = 0; i < count; i++) {
+            histogram.record(millis);
+        }
+        return histogram;
+    }
+
+    @Test
+    public void notifierOverrideWins() {
+        TimeoutPolicy policy = new TimeoutPolicy(1000, 30000, 1000, true, 2000, 60000);
+        assertEquals(5000, policy.readTimeout(latencies(100, 100), 5000));
+    }
+
+    @Test
+    public void fixedReadTimeoutUnlessAdaptive() {
+        TimeoutPolicy policy = new TimeoutPolicy(1000, 30000, 1000, false, 2000, 60000);
+        assertEquals(30000, policy.readTimeout(latencies(100, 100), 0));
+    }
+
+    @Test
+    public void adaptiveReadTimeoutFollowsP99WithinBounds() {
+        TimeoutPolicy policy = new TimeoutPolicy(1000, 30000, 1000, true, 2000, 60000);
+        // too few samples to trust
+        assertEquals(30000, policy.readTimeout(latencies(100, 5), 0));
+        // fast endpoint: 3 x 128ms is below the floor
+        assertEquals(2000, policy.readTimeout(latencies(100, 100), 0));
+        // slow but healthy endpoint: 3 x 4000ms
+        assertEquals(12000, policy.readTimeout(latencies(4000, 100), 0));
+        // capped by the ceiling
+        assertEquals(60000, policy.readTimeout(latencies(50000, 100), 0));
+    }
+
+    /**
+     * A webhook that accepts the connection but never answers must not hang the caller.
+     */
+    @Test(timeout = 10000)
+    public void silentEndpointTimesOut() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        try {
+            StandardBearyChatService service = new StandardBearyChatService(
+                    "http://localhost:" + server.getLocalPort() + "/hook", "general");
+            service.setReadTimeoutMillis(300);
+            long start = System.currentTimeMillis();
+            DeliveryResult result = service.send(new BearyChatPayload("message", null));
+            assertTrue(result.isRetryable());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package jenkins.plugins.bearychat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Cause;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class UpstreamCommitCacheTest {
+
+    private final Map<String, AbstractBuild> builds = new HashMap<String, AbstractBuild>();
+    private final List<String> lookups = new ArrayList<String>();
+
+    private final UpstreamCommitCache cache = new UpstreamCommitCache(UpstreamCommitCache.DEFAULT_CAPACITY) {
+        @Override
+        AbstractBuild findBuild(String fullName, int number) {
+            lookups.add(fullName + "#" + number);
+            return builds.get(fullName + "#" + number);
+        }
+    };
+
+    private AbstractBuild build(String job, int number, int changes, String upstreamJob, int upstreamNumber) {
+        List<Change> entries = new ArrayList<Change>();
+        User author = mock(User.class);
+        when(author.getDisplayName()).thenReturn("dev");
+        for (int i = 0; i < changes; i++) {
+            entries.add(new Change(job + " change " + i, author));
+        }
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getChangeSet()).thenReturn(new Changes(entries));
+        if (upstreamJob != null) {
+            Cause.UpstreamCause cause = mock(Cause.UpstreamCause.class);
+            when(cause.getUpstreamProject()).thenReturn(upstreamJob);
+            when(cause.getUpstreamBuild()).thenReturn(upstreamNumber);
+            when(build.getCause(Cause.UpstreamCause.class)).thenReturn(cause);
+        }
+        builds.put(job + "#" + number, build);
+        return build;
+    }
+
+    @Test
+    public void ownChangesNeedNoLookup() {
+        assertEquals("- app change 0 [dev]\n", cache.getCommitMessages(build("app", 1, 1, "upstream", 1)));
+        assertEquals(0, lookups.size());
+    }
+
+    @Test
+    public void fanOutResolvesTheUpstreamOnce() {
+        AbstractBuild upstream = build("upstream", 7, 2, null, 0);
+        String expected = "- upstream change 0 [dev]\n- upstream change 1 [dev]\n";
+        for (int i = 0; i < 60; i++) {
+            assertEquals(expected, cache.getCommitMessages(build("downstream" + i, 1, 0, "upstream", 7)));
+        }
+        verify(upstream, times(1)).getChangeSet();
+        assertEquals(59, cache.getHits());
+    }
+
+    @Test
+    public void chainIsFollowedAndEveryStepRemembered() {
+        build("root", 3, 1, null, 0);
+        build("middle", 5, 0, "root", 3);
+        assertEquals("- root change 0 [dev]\n", cache.getCommitMessages(build("leaf", 1, 0, "middle", 5)));
+        assertEquals(2, cache.size());
+
+        // another build triggered by the middle job finds it cached and goes no further
+        lookups.clear();
+        assertEquals("- root change 0 [dev]\n", cache.getCommitMessages(build("other", 1, 0, "middle", 5)));
+        assertEquals(Collections.singletonList("middle#5"), lookups);
+    }
+
+    @Test
+    public void cycleEndsTheWalk() {
+        build("a", 1, 0, "b", 1);
+        build("b", 1, 0, "a", 1);
+        assertEquals(UpstreamCommitCache.NO_COMMITS, cache.getCommitMessages(build("c", 1, 0, "a", 1)));
+        assertEquals(3, lookups.size());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void depthIsLimited() {
+        for (int i = 0; i < 3 * UpstreamCommitCache.MAX_DEPTH; i++) {
+            build("job" + i, 1, 0, "job" + (i + 1), 1);
+        }
+        assertEquals(UpstreamCommitCache.NO_COMMITS, cache.getCommitMessages(build("start", 1, 0, "job0", 1)));
+        assertEquals(UpstreamCommitCache.MAX_DEPTH, lookups.size());
+    }
+
+    @Test
+    public void walksThatGaveUpAreNotRemembered() {
+        for (int i = 0; i < 3 * UpstreamCommitCache.MAX_DEPTH; i++) {
+            build("job" + i, 1, 0, "job" + (i + 1), 1);
+        }
+        cache.getCommitMessages(build("start", 1, 0, "job0", 1));
+        build("missing", 1, 0, "deleted", 4);
+        cache.getCommitMessages(build("orphan", 1, 0, "missing", 1));
+        assertEquals(0, cache.size());
+
+        // closer to the end of the chain, the walk gets there and every step is remembered
+        build("job" + 3 * UpstreamCommitCache.MAX_DEPTH, 1, 1, null, 0);
+        String expected = "- job" + 3 * UpstreamCommitCache.MAX_DEPTH + " change 0 [dev]\n";
+        lookups.clear();
+        assertEquals(expected, cache.getCommitMessages(build("late", 1, 0, "job" + (2 * UpstreamCommitCache.MAX_DEPTH + 1), 1)));
+        assertEquals(UpstreamCommitCache.MAX_DEPTH, cache.size());
+    }
+
+    @Test
+    public void recreatedUpstreamJobIsNotTakenForTheOldOne() {
+        when(build("upstream", 1, 1, null, 0).getTimeInMillis()).thenReturn(1000L);
+        assertEquals("- upstream change 0 [dev]\n", cache.getCommitMessages(build("first", 1, 0, "upstream", 1)));
+
+        // the job is deleted and created again, and its first build has other changes
+        when(build("upstream", 1, 2, null, 0).getTimeInMillis()).thenReturn(2000L);
+        assertEquals("- upstream change 0 [dev]\n- upstream change 1 [dev]\n",
+                cache.getCommitMessages(build("second", 1, 0, "upstream", 1)));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void missingUpstreamHasNoCommits() {
+        assertEquals(UpstreamCommitCache.NO_COMMITS, cache.getCommitMessages(build("orphan", 1, 0, "deleted", 4)));
+        assertEquals(UpstreamCommitCache.NO_COMMITS, cache.getCommitMessages(build("manual", 1, 0, null, 0)));
+    }
+
+    private static final class Changes extends ChangeLogSet<Change> {
+
+        private final List<Change> entries;
+
+        Changes(List<Change> entries) {
+            super(null, null);
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean isEmptySet() {
+            return entries.isEmpty();
+        }
+
+        public Iterator<Change> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    private static final class Change extends ChangeLogSet.Entry {
+
+        private final String msg;
+        private final User author;
+
+        Change(String msg, User author) {
+            this.msg = msg;
+            this.author = author;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return author;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return Collections.singletonList(msg);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package jenkins.plugins.bearychat;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WarmSocketFactoryTest {
+
+    private ServerSocket server;
+    private final List<Socket> accepted = new ArrayList<Socket>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * A peer that takes the connection but never answers the ClientHello.
+     */
+    private int silentServer() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread("silent server") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        accepted.add(server.accept());
+                    }
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    @Test(timeout = 20000)
+    public void stalledHandshakeTimesOut() throws Exception {
+        int port = silentServer();
+        HttpConnectionParams params = new HttpConnectionParams();
+        params.setConnectionTimeout(1000);
+        params.setSoTimeout(300);
+        WarmSocketFactory factory = new WarmSocketFactory.Secure(new DnsCache(60000, 10));
+        long start = System.currentTimeMillis();
+        try {
+            factory.createSocket("127.0.0.1", port, null, 0, params);
+            fail("the handshake cannot complete");
+        } catch (IOException e) {
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package jenkins.plugins.bearychat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WebhookWaitQueueTest {
+
+    private static final String WEBHOOK = "http://localhost/hook";
+
+    private static QueuedNotification notification(String channel, boolean urgent) {
+        QueuedNotification notification = new QueuedNotification(WEBHOOK, channel, new BearyChatPayload("message", null));
+        notification.setUrgent(urgent);
+        return notification;
+    }
+
+    @Test
+    public void urgentNotificationsGoFirstAndChannelsTakeTurns() {
+        RateLimiterRegistry rateLimiters = new RateLimiterRegistry();
+        rateLimiters.configure(60, 100, 8);
+        WebhookWaitQueue waiting = rateLimiters.getWaitQueue(WEBHOOK);
+        QueuedNotification routine = notification("#a", false);
+        QueuedNotification firstUrgent = notification("#a", true);
+        QueuedNotification secondUrgent = notification("#a", true);
+        QueuedNotification other = notification("#b", false);
+        waiting.hold(routine);
+        waiting.hold(firstUrgent);
+        waiting.hold(other);
+        waiting.hold(secondUrgent);
+        assertEquals(4, rateLimiters.getHeld());
+
+        long now = System.nanoTime();
+        assertSame(firstUrgent, waiting.poll(rateLimiters, now));
+        assertSame(other, waiting.poll(rateLimiters, now));
+        assertSame(secondUrgent, waiting.poll(rateLimiters, now));
+        assertSame(routine, waiting.poll(rateLimiters, now));
+        assertTrue(waiting.isEmpty());
+    }
+
+    @Test
+    public void anEmptyBucketSaysHowLongToWait() {
+        RateLimiterRegistry rateLimiters = new RateLimiterRegistry();
+        rateLimiters.configure(60, 1, 8);
+        WebhookWaitQueue waiting = rateLimiters.getWaitQueue(WEBHOOK);
+        long now = System.nanoTime();
+        assertEquals(0, rateLimiters.getBucket(WEBHOOK, "#a").tryAcquire(false, now));
+        waiting.hold(notification("#a", false));
+
+        assertNull(waiting.poll(rateLimiters, now));
+        assertEquals(1, waiting.size());
+        long wait = waiting.getNextWaitNanos();
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(900) && wait <= TimeUnit.SECONDS.toNanos(1));
+        assertNotNull(waiting.poll(rateLimiters, now + wait + TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+}
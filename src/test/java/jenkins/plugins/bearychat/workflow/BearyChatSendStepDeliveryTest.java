@@ -0,0 +1,96 @@
+package jenkins.plugins.bearychat.workflow;
+
+import hudson.model.Result;
+import jenkins.plugins.bearychat.FakeBearyChatServer;
+import jenkins.plugins.bearychat.Messages;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the {@code bearychatSend} step in a pipeline against a {@link FakeBearyChatServer}.
+ */
+public class BearyChatSendStepDeliveryTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private FakeBearyChatServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBearyChatServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private WorkflowJob createJob(String name, String arguments) throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, name);
+        job.setDefinition(new CpsFlowDefinition("bearychatSend(webhook: '" + server.getWebhook() + "', channel: '#ci', "
+                + arguments + ");", true));
+        return job;
+    }
+
+    @Test
+    public void stepPostsTheMessage() throws Exception {
+        WorkflowJob job = createJob("step-posts", "message: 'deployed', title: 'Deploy', attachmentText: 'all good', color: 'green'");
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        JSONObject payload = server.awaitPosts(1, 10000).get(0).getPayload();
+        assertEquals("deployed", payload.getString("text"));
+        assertEquals("#ci", payload.getString("channel"));
+        JSONObject attachment = payload.getJSONArray("attachments").getJSONObject(0);
+        assertEquals("Deploy", attachment.getString("title"));
+        assertEquals("all good", attachment.getString("text"));
+        assertEquals("green", attachment.getString("color"));
+    }
+
+    @Test
+    public void retriedStepPostsOnce() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "step-retry");
+        job.setDefinition(new CpsFlowDefinition("int attempts = 0\n"
+                + "retry(2) {\n"
+                + "  attempts++\n"
+                + "  bearychatSend(webhook: '" + server.getWebhook() + "', channel: '#ci', message: 'deployed')\n"
+                + "  if (attempts == 1) { error 'flaky deployment' }\n"
+                + "}", true));
+        WorkflowRun run = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkinsRule.assertLogContains(Messages.NotificationDuplicate(), run);
+        assertEquals(1, server.getReceived().size());
+    }
+
+    @Test
+    public void serverErrorFailsTheBuildWhenAsked() throws Exception {
+        server.setDefaultFault(FakeBearyChatServer.Fault.serverError(500));
+        WorkflowJob job = createJob("step-fail-on-error", "message: 'deployed', failOnError: true");
+        WorkflowRun run = jenkinsRule.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0).get());
+        jenkinsRule.assertLogContains(Messages.NotificationFailed(), run);
+    }
+
+    @Test
+    public void connectionResetIsReportedWithoutFailingTheBuild() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.reset());
+        WorkflowJob job = createJob("step-reset", "message: 'deployed'");
+        WorkflowRun run = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkinsRule.assertLogContains(Messages.NotificationFailed(), run);
+    }
+
+    @Test
+    public void slowLorisResponseIsReadToTheEnd() throws Exception {
+        server.enqueue(FakeBearyChatServer.Fault.slowLoris(50));
+        WorkflowJob job = createJob("step-slow-loris", "message: 'deployed'");
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        assertEquals(1, server.getReceived().size());
+    }
+}